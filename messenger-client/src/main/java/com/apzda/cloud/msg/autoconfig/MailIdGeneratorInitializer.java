@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.autoconfig;
+
+import com.apzda.cloud.msg.id.MailIdGenerator;
+import com.apzda.cloud.msg.id.MailIdGenerators;
+import jakarta.annotation.Nonnull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * 将容器中的{@link MailIdGenerator}设置为{@link MailIdGenerators}当前使用的生成器.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@RequiredArgsConstructor
+public class MailIdGeneratorInitializer implements InitializingBean {
+
+    @Nonnull
+    private final MailIdGenerator mailIdGenerator;
+
+    @Override
+    public void afterPropertiesSet() {
+        MailIdGenerators.set(mailIdGenerator);
+    }
+
+}
@@ -22,8 +22,14 @@ import com.apzda.cloud.msg.Messenger;
 import com.apzda.cloud.msg.client.MessengerImpl;
 import com.apzda.cloud.msg.config.MessengerClientProperties;
 import com.apzda.cloud.msg.domain.service.IMailboxTransService;
+import com.apzda.cloud.msg.id.MailIdGenerator;
+import com.apzda.cloud.msg.id.SnowflakeMailIdGenerator;
+import com.apzda.cloud.msg.id.UlidMailIdGenerator;
+import com.apzda.cloud.msg.id.UuidMailIdGenerator;
 import com.apzda.cloud.msg.listener.MessengerTransactionListener;
 import com.apzda.cloud.msg.proto.MessengerService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.apache.rocketmq.client.AccessChannel;
@@ -37,10 +43,13 @@ import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.Primary;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
@@ -67,18 +76,45 @@ public class MessengerClientAutoConfiguration {
     private String defaultService;
 
     @Bean
+    @DependsOn("mailIdGeneratorInitializer")
     Messenger messengerImpl(MessengerClientProperties properties, IMailboxTransService mailboxService, Clock clock,
             ObjectProvider<TransactionMQProducer> provider) throws MQClientException {
         return new MessengerImpl(properties, provider, mailboxService, clock, defaultService);
     }
 
+    @Bean
+    @ConditionalOnMissingBean
+    MailIdGenerator mailIdGenerator(MessengerClientProperties properties) {
+        val nodeId = properties.getNodeId();
+        var idGenerator = properties.getIdGenerator();
+        if (idGenerator == null) {
+            // 随机节点号可能与其它节点冲突，未配置节点号时使用不需要节点号的ULID
+            idGenerator = nodeId < 0 ? MessengerClientProperties.IdGenerator.ULID
+                    : MessengerClientProperties.IdGenerator.SNOWFLAKE;
+        }
+        return switch (idGenerator) {
+            case SNOWFLAKE -> {
+                Assert.isTrue(nodeId >= 0, "[apzda.cloud.messenger.node-id] must be set for snowflake ids");
+                yield new SnowflakeMailIdGenerator(nodeId);
+            }
+            case ULID -> new UlidMailIdGenerator();
+            case UUID -> new UuidMailIdGenerator();
+        };
+    }
+
+    @Bean
+    MailIdGeneratorInitializer mailIdGeneratorInitializer(MailIdGenerator mailIdGenerator) {
+        return new MailIdGeneratorInitializer(mailIdGenerator);
+    }
+
     @Bean(destroyMethod = "shutdown")
     @ConditionalOnProperty(prefix = "apzda.cloud.messenger", name = "enabled", havingValue = "true",
             matchIfMissing = true)
     @SuppressWarnings("deprecation")
     @Primary
     TransactionMQProducer messengerMqProducer(MessengerClientProperties properties,
-            RocketMQProperties rocketMQProperties, IMailboxTransService mailboxService) throws MQClientException {
+            RocketMQProperties rocketMQProperties, IMailboxTransService mailboxService, Clock clock)
+            throws MQClientException {
         RocketMQProperties.Producer producerConfig = rocketMQProperties.getProducer();
         String nameServer = rocketMQProperties.getNameServer();
         String groupName = defaultIfBlank(properties.getGroup(), producerConfig.getGroup());
@@ -111,7 +147,8 @@ public class MessengerClientAutoConfiguration {
             producer.setNamespace(namespaces);
         }
         producer.setInstanceName(defaultIfBlank(properties.getInstanceName(), producerConfig.getInstanceName()));
-        producer.setTransactionListener(new MessengerTransactionListener(mailboxService));
+        producer.setTransactionListener(
+                new MessengerTransactionListener(mailboxService, properties.getCommitMode(), clock));
         producer.start();
         log.info("a producer used by Messenger ({}) init on namesrv {}", groupName, nameServer);
         return producer;
@@ -122,4 +159,22 @@ public class MessengerClientAutoConfiguration {
         return () -> "messenger";
     }
 
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    static class MessengerMetricsConfiguration {
+
+        @Bean
+        MeterBinder messengerMeterBinder(Messenger messenger) {
+            return registry -> {
+                if (messenger instanceof MessengerImpl impl) {
+                    Gauge.builder("apzda.messenger.poll.interval", impl, MessengerImpl::getPollInterval)
+                        .description("Current poll interval of the outbox")
+                        .baseUnit("milliseconds")
+                        .register(registry);
+                }
+            };
+        }
+
+    }
+
 }
@@ -17,12 +17,19 @@
 package com.apzda.cloud.msg.client;
 
 import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.util.RandomUtil;
 import com.apzda.cloud.msg.IMail;
 import com.apzda.cloud.msg.Messenger;
+import com.apzda.cloud.msg.SendFailure;
+import com.apzda.cloud.msg.codec.ContentCodec;
+import com.apzda.cloud.msg.codec.ContentCodecs;
 import com.apzda.cloud.msg.config.MessengerClientProperties;
 import com.apzda.cloud.msg.domain.entity.MailboxTrans;
 import com.apzda.cloud.msg.domain.service.IMailboxTransService;
 import com.apzda.cloud.msg.domain.vo.MailStatus;
+import com.apzda.cloud.msg.listener.MessengerTransactionListener;
+import com.apzda.cloud.msg.scheduler.AdaptivePoller;
+import com.apzda.cloud.msg.scheduler.TimingWheel;
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
@@ -35,13 +42,18 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 
 import java.nio.charset.StandardCharsets;
 import java.time.Clock;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.apache.rocketmq.client.producer.SendStatus.SEND_OK;
 
@@ -69,6 +81,26 @@ public class MessengerImpl implements Messenger, InitializingBean {
 
     private final String defaultService;
 
+    private final String instanceId = RandomUtil.randomString(16);
+
+    private final BlockingQueue<Long> dispatchQueue;
+
+    private final ContentCodec codec;
+
+    private ExecutorService dispatcher;
+
+    private ExecutorService relay;
+
+    private Semaphore relayWindow;
+
+    private TimingWheel<Long> wheel;
+
+    private ScheduledExecutorService timer;
+
+    private final List<AdaptivePoller> pollers = new CopyOnWriteArrayList<>();
+
+    private volatile boolean running = true;
+
     public MessengerImpl(MessengerClientProperties properties, ObjectProvider<TransactionMQProducer> provider,
             IMailboxTransService mailboxService, Clock clock, String defaultService) throws MQClientException {
         this.properties = properties;
@@ -77,7 +109,10 @@ public class MessengerImpl implements Messenger, InitializingBean {
         this.producer = provider.getIfAvailable();
         this.topic = properties.getTopic();
         this.defaultService = defaultService;
+        this.dispatchQueue = properties.getDispatchQueueSize() > 0
+                ? new LinkedBlockingQueue<>(properties.getDispatchQueueSize()) : null;
         Assert.hasText(topic, "[apzda.cloud.messenger.producer.topic] must not be null");
+        this.codec = ContentCodecs.get(properties.getCodec());
         val executorCount = properties.getExecutorCount();
         executor = new ScheduledThreadPoolExecutor(
                 executorCount < 1 ? Math.max(1, Runtime.getRuntime().availableProcessors() / 4) : executorCount, r -> {
@@ -91,46 +126,253 @@ public class MessengerImpl implements Messenger, InitializingBean {
     @Override
     public void afterPropertiesSet() throws Exception {
         if (this.producer != null) {
+            val window = properties.getRelayWindow();
+            if (window > 0) {
+                // 在途窗口内的消息并行发送，重叠与Broker之间的往返
+                val counter = new AtomicInteger(0);
+                relayWindow = new Semaphore(window);
+                relay = Executors.newFixedThreadPool(window, r -> {
+                    val thread = new Thread(r);
+                    thread.setName("messenger-relay-" + counter.getAndAdd(1));
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                log.info("Messenger relay init: window={}", window);
+            }
+
             val executorCount = executor.getCorePoolSize();
-            val delay = properties.getDelay().toSeconds();
-            val period = properties.getPeriod().toSeconds();
+            if (dispatchQueue != null) {
+                val counter = new AtomicInteger(0);
+                dispatcher = Executors.newFixedThreadPool(executorCount, r -> {
+                    val thread = new Thread(r);
+                    thread.setName("messenger-dispatcher-" + counter.getAndAdd(1));
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                for (int i = 0; i < executorCount; i++) {
+                    val sender = new MailSender(instanceId + "-d" + i);
+                    dispatcher.execute(sender::dispatch);
+                }
+                log.info("Messenger dispatcher init: count={}, queueSize={}", executorCount,
+                        properties.getDispatchQueueSize());
+            }
+
+            if (dispatchQueue != null && properties.getWheelCapacity() > 0) {
+                // 重试时间登记在时间轮中，到期后直接派发，不再轮询数据库
+                val tick = Math.max(1, properties.getWheelTick().toMillis());
+                val reconcilePeriod = Math.max(tick, properties.getReconcilePeriod().toMillis());
+                wheel = new TimingWheel<>(tick, properties.getWheelSize(), clock.millis());
+                timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                    val thread = new Thread(r);
+                    thread.setName("messenger-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                timer.scheduleAtFixedRate(this::fireDue, tick, tick, TimeUnit.MILLISECONDS);
+                timer.scheduleAtFixedRate(this::loadScheduled, 0, reconcilePeriod, TimeUnit.MILLISECONDS);
+                log.info("Messenger timing wheel init: tick={}ms, size={}, reconcilePeriod={}ms", tick,
+                        properties.getWheelSize(), reconcilePeriod);
+            }
+
+            val delay = properties.getDelay().toMillis();
+            // 有时间轮时轮询只用于低频对账
+            val minPeriod = Math.max(1000,
+                    wheel != null ? properties.getReconcilePeriod().toMillis() : properties.getPeriod().toMillis());
+            val maxPeriod = wheel != null ? minPeriod : properties.getMaxPeriod().toMillis();
             for (int i = 0; i < executorCount; i++) {
-                executor.scheduleAtFixedRate(
-                        new MailSender(producer, mailboxService, topic, properties, clock, defaultService),
-                        delay > 0 ? delay : 10, period > 0 ? period : 1, TimeUnit.SECONDS);
+                val sender = new MailSender(instanceId + "-" + i);
+                val poller = new AdaptivePoller(executor, sender::poll, minPeriod, maxPeriod);
+                pollers.add(poller);
+                poller.start(delay > 0 ? delay : 10000);
             }
-            log.info("Messenger executor init: count={}, delay={}, period={} ", executorCount, delay, period);
+            log.info("Messenger executor init: count={}, delay={}ms, period={}ms~{}ms, batchSize={}", executorCount,
+                    delay, minPeriod, maxPeriod, properties.getBatchSize());
+
+            // 发送者宕机后遗留在SENDING状态的邮件在租期过后退回重发
+            val sweepPeriod = Math.max(1000, properties.getSweepPeriod().toMillis());
+            executor.scheduleWithFixedDelay(this::sweep, sweepPeriod, sweepPeriod, TimeUnit.MILLISECONDS);
+            log.info("Messenger sweeper init: leaseTime={}, period={}ms", properties.getLeaseTime(), sweepPeriod);
         }
     }
 
+    /**
+     * @return 最活跃的轮询线程当前的轮询间隔(毫秒)
+     */
+    public long getPollInterval() {
+        return pollers.stream().mapToLong(AdaptivePoller::getInterval).min().orElse(0);
+    }
+
     @Override
     @Transactional(propagation = Propagation.SUPPORTS)
     public void send(@Nonnull IMail<?> mail) {
+        val mailbox = createMailbox(mail, clock.millis());
+
+        if (!mailboxService.save(mailbox)) {
+            throw new RuntimeException("The mail cannot save into mailbox: " + mail);
+        }
+
+        dispatchAfterCommit(List.of(mailbox.getId()));
+    }
+
+    @Nonnull
+    @Override
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public List<SendFailure> sendAll(@Nonnull Collection<? extends IMail<?>> mails) {
+        val failures = new ArrayList<SendFailure>();
+        val mailboxes = new ArrayList<MailboxTrans>(mails.size());
+        val now = clock.millis();
+        // 先校验全部邮件，不合法的邮件不落库
+        for (IMail<?> mail : mails) {
+            try {
+                mailboxes.add(createMailbox(mail, now));
+            }
+            catch (Exception e) {
+                failures.add(new SendFailure(mail, e.getMessage()));
+            }
+        }
+
+        if (!mailboxes.isEmpty()) {
+            mailboxService.saveAll(mailboxes, properties.getInsertBatchSize());
+            dispatchAfterCommit(mailboxes.stream().map(MailboxTrans::getId).toList());
+        }
+
+        return failures;
+    }
+
+    @Nonnull
+    private MailboxTrans createMailbox(@Nonnull IMail<?> mail, long now) {
         val postman = mail.getPostman();
         Assert.hasText(postman, "postman must not be null");
         val content = mail.getContent();
         Assert.hasText(content, "content must not be null");
         val recipients = mail.getRecipients();
-        Assert.hasText(content, "recipients must not be null");
+        Assert.hasText(recipients, "recipients must not be null");
 
         val mailbox = new MailboxTrans();
+        mailbox.setCreatedAt(now);
+        mailbox.setStatus(MailStatus.PENDING);
         mailbox.setPostman(postman);
         mailbox.setMailId(mail.getId());
-        mailbox.setContent(content);
+        encode(mailbox, content);
         mailbox.setService(mail.getService());
         mailbox.setTitle(mail.getTitle());
-        mailbox.setNextRetryAt(clock.millis());
+        mailbox.setNextRetryAt(now);
         mailbox.setRetries(0);
         mailbox.setPostTime(mailbox.getNextRetryAt());
         mailbox.setRecipients(recipients);
+        return mailbox;
+    }
 
-        if (!mailboxService.save(mailbox)) {
-            throw new RuntimeException("The mail cannot save into mailbox: " + mail);
+    private void encode(MailboxTrans mailbox, String content) {
+        if (codec != null) {
+            val data = content.getBytes(StandardCharsets.UTF_8);
+            if (data.length >= properties.getCodecThreshold().toBytes()) {
+                // 编码后的内容原样存入发件箱并作为消息体发送
+                mailbox.setCodec(codec.getName());
+                mailbox.setPayload(codec.encode(data));
+                return;
+            }
+        }
+        mailbox.setContent(content);
+    }
+
+    private void dispatchAfterCommit(List<Long> ids) {
+        // 事务提交后立即发送，轮询仅用于兜底
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    dispatch(ids);
+                }
+            });
+        }
+        else {
+            dispatch(ids);
+        }
+    }
+
+    private void dispatch(List<Long> ids) {
+        if (dispatcher == null) {
+            // 没有派发线程时唤醒轮询
+            pollers.forEach(AdaptivePoller::signal);
+            return;
+        }
+        for (Long id : ids) {
+            if (!dispatchQueue.offer(id)) {
+                log.debug("Dispatch queue is full, mail({}) will be sent by poller", id);
+                pollers.forEach(AdaptivePoller::signal);
+                return;
+            }
+        }
+    }
+
+    private void reschedule(Long id, long nextRetryAt) {
+        if (wheel != null && wheel.size() < properties.getWheelCapacity()) {
+            wheel.schedule(id, nextRetryAt);
+        }
+    }
+
+    private void fireDue() {
+        try {
+            val ids = wheel.advance(clock.millis());
+            if (!ids.isEmpty()) {
+                dispatch(ids);
+            }
+        }
+        catch (Exception e) {
+            log.warn("Cannot dispatch due mails: {}", e.getMessage());
+        }
+    }
+
+    private void loadScheduled() {
+        try {
+            val limit = properties.getWheelCapacity() - wheel.size();
+            if (limit <= 0) {
+                return;
+            }
+            val now = clock.millis();
+            // 多加载一个对账周期，避免两次加载之间出现空档
+            val to = now + 2 * properties.getReconcilePeriod().toMillis();
+            for (MailboxTrans trans : mailboxService.listScheduled(now, to, limit)) {
+                wheel.schedule(trans.getId(), trans.getNextRetryAt());
+            }
+        }
+        catch (Exception e) {
+            log.warn("Cannot load scheduled mails: {}", e.getMessage());
+        }
+    }
+
+    private void sweep() {
+        try {
+            val limit = Math.max(1, properties.getSweepBatchSize());
+            int released = 0;
+            int count;
+            do {
+                count = mailboxService.releaseExpired(clock.millis(), limit);
+                released += count;
+            }
+            while (count >= limit && running);
+
+            if (released > 0) {
+                log.warn("Released {} mails whose lease has expired", released);
+                pollers.forEach(AdaptivePoller::signal);
+            }
+        }
+        catch (Exception e) {
+            log.warn("Cannot release expired mails: {}", e.getMessage());
         }
     }
 
     @PreDestroy
     void stop() {
+        running = false;
+        pollers.forEach(AdaptivePoller::stop);
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
         try {
             executor.shutdown();
             if (executor.awaitTermination(90, TimeUnit.SECONDS)) {
@@ -139,74 +381,185 @@ public class MessengerImpl implements Messenger, InitializingBean {
             else {
                 log.warn("Shutdown Messenger executor timeout: 90s");
             }
+            if (dispatcher != null && !dispatcher.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Shutdown Messenger dispatcher timeout: 10s");
+            }
+            if (relay != null) {
+                relay.shutdown();
+                if (!relay.awaitTermination(30, TimeUnit.SECONDS)) {
+                    log.warn("Shutdown Messenger relay timeout: 30s");
+                }
+            }
         }
         catch (Exception e) {
             log.warn("Cannot shutdown Messenger executor: {}", e.getMessage());
         }
     }
 
-    @Slf4j
-    private record MailSender(TransactionMQProducer producer, IMailboxTransService mailboxService, String topic,
-            MessengerClientProperties postmanConfig, Clock clock, String defaultService) implements Runnable {
+    private final class MailSender {
+
+        private final String workerId;
+
+        private final AtomicLong sequence = new AtomicLong();
+
+        MailSender(String workerId) {
+            this.workerId = workerId;
+        }
 
-        @Override
-        public void run() {
-            MailboxTrans trans;
+        /**
+         * 认领并发送到期的邮件.
+         * @return 是否认领到了邮件
+         */
+        boolean poll() {
+            val batchSize = Math.max(1, properties.getBatchSize());
+            val strategy = properties.getClaimStrategy();
+            boolean claimed = false;
+            List<MailboxTrans> batch;
             do {
-                trans = mailboxService.getByStatusAndNextRetryAtLe(MailStatus.PENDING, clock.millis());
-                if (trans != null) {
+                // 一次认领一批，认领的令牌每次都不同
+                batch = mailboxService.claim(strategy, batchSize, clock.millis(),
+                        workerId + "-" + sequence.incrementAndGet());
+                for (MailboxTrans trans : batch) {
+                    relay(trans);
+                }
+                claimed |= !batch.isEmpty();
+            }
+            while (batch.size() >= batchSize);
+            return claimed;
+        }
+
+        /**
+         * 立即发送派发队列中的邮件，直到停止.
+         */
+        void dispatch() {
+            val batchSize = Math.max(1, properties.getBatchSize());
+            val ids = new ArrayList<Long>(batchSize);
+            while (running) {
+                try {
+                    val id = dispatchQueue.poll(1, TimeUnit.SECONDS);
+                    if (id == null) {
+                        continue;
+                    }
+                    ids.add(id);
+                    dispatchQueue.drainTo(ids, batchSize - 1);
+                    // 没认领到的邮件已被其它线程处理
+                    val batch = mailboxService.claimByIds(ids, clock.millis(),
+                            workerId + "-" + sequence.incrementAndGet());
+                    for (MailboxTrans trans : batch) {
+                        relay(trans);
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                catch (Exception e) {
+                    // 未发送的邮件由轮询兜底
+                    log.warn("Cannot dispatch mails: {} - {}", ids, e.getMessage());
+                }
+                finally {
+                    ids.clear();
+                }
+            }
+        }
+
+        private void relay(MailboxTrans trans) {
+            if (relay == null || Thread.currentThread().isInterrupted()) {
+                send(trans);
+                return;
+            }
+
+            try {
+                relayWindow.acquire();
+            }
+            catch (InterruptedException e) {
+                // 已认领的邮件不能丢下不管
+                Thread.currentThread().interrupt();
+                send(trans);
+                return;
+            }
+
+            try {
+                relay.execute(() -> {
                     try {
-                        trans.setStatus(MailStatus.SENDING);
-                        if (!mailboxService.updateStatus(trans, MailStatus.PENDING)) {
-                            continue;
-                        }
-
-                        val postman = trans.getPostman();
-                        Assert.hasText(postman, "postman must not be null");
-                        val content = trans.getContent();
-                        Assert.hasText(content, "content must not be null");
-
-                        if (StringUtils.isBlank(trans.getService()) && StringUtils.isNotBlank(defaultService)) {
-                            trans.setService(defaultService);
-                        }
-
-                        val message = createMessage(topic, postman, content, trans);
-                        val result = this.producer.sendMessageInTransaction(message, trans);
-                        if (result == null) {
-                            throw new RuntimeException("Can't send mail: " + trans);
-                        }
-                        else if (SEND_OK != result.getSendStatus()) {
-                            throw new RuntimeException(
-                                    "Can't send mail with status(" + result.getSendStatus() + "): " + trans);
-                        }
+                        send(trans);
                     }
-                    catch (Exception e) {
-                        val message = ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(e));
-                        val retries = postmanConfig.getRetries();
-                        val currentRetry = trans.getRetries();
-                        if (retries.size() >= (currentRetry + 1)) {
-                            trans.setStatus(MailStatus.PENDING);
-                            trans.setRetries(currentRetry + 1);
-                            val duration = retries.get(currentRetry);
-                            trans.setNextRetryAt(trans.getNextRetryAt() + duration.toMillis());
-                        }
-                        else {
-                            trans.setStatus(MailStatus.FAIL);
-                        }
-                        trans.setRemark(message);
-                        mailboxService.updateStatus(trans, MailStatus.SENDING);
-                        log.warn("Cannot send mail: {} - {}", trans, message);
+                    finally {
+                        relayWindow.release();
                     }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                relayWindow.release();
+                send(trans);
+            }
+        }
+
+        private void send(MailboxTrans trans) {
+            try {
+                val postman = trans.getPostman();
+                Assert.hasText(postman, "postman must not be null");
+                val content = body(trans);
+
+                if (StringUtils.isBlank(trans.getService()) && StringUtils.isNotBlank(defaultService)) {
+                    trans.setService(defaultService);
+                }
+
+                val message = createMessage(topic, postman, content, trans);
+                val result = producer.sendMessageInTransaction(message, trans);
+                if (result == null) {
+                    throw new RuntimeException("Can't send mail: " + trans);
+                }
+                else if (SEND_OK != result.getSendStatus()) {
+                    throw new RuntimeException("Can't send mail with status(" + result.getSendStatus() + "): " + trans);
+                }
+            }
+            catch (Exception e) {
+                val message = ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(e));
+                val retries = properties.getRetries();
+                val currentRetry = trans.getRetries();
+                if (retries.size() >= (currentRetry + 1)) {
+                    trans.setStatus(MailStatus.PENDING);
+                    trans.setRetries(currentRetry + 1);
+                    val duration = retries.get(currentRetry);
+                    trans.setNextRetryAt(trans.getNextRetryAt() + duration.toMillis());
+                }
+                else {
+                    trans.setStatus(MailStatus.FAIL);
+                }
+                trans.setRemark(message);
+                if (mailboxService.updateStatus(trans, MailStatus.SENDING) && trans.getStatus() == MailStatus.PENDING) {
+                    reschedule(trans.getId(), trans.getNextRetryAt());
                 }
+                log.warn("Cannot send mail: {} - {}", trans, message);
             }
-            while (trans != null);
         }
+
+    }
+
+    @Nonnull
+    private static byte[] body(MailboxTrans trans) {
+        if (StringUtils.isNotBlank(trans.getCodec())) {
+            val payload = trans.getPayload();
+            Assert.isTrue(payload != null && payload.length > 0, "payload must not be null");
+            return payload;
+        }
+        val content = trans.getContent();
+        Assert.hasText(content, "content must not be null");
+        return content.getBytes(StandardCharsets.UTF_8);
     }
 
     @Nonnull
-    private static Message createMessage(String topic, String postman, String content, MailboxTrans trans) {
-        val message = new Message(topic, postman, content.getBytes(StandardCharsets.UTF_8));
+    private static Message createMessage(String topic, String postman, byte[] content, MailboxTrans trans) {
+        val message = new Message(topic, postman, content);
         message.putUserProperty("msgId", trans.getMailId());
+        if (StringUtils.isNotBlank(trans.getCodec())) {
+            message.putUserProperty(ContentCodecs.PROPERTY, trans.getCodec());
+        }
+        message.putUserProperty(MessengerTransactionListener.OUTBOX_ID, String.valueOf(trans.getId()));
+        if (StringUtils.isNotBlank(trans.getClaimToken())) {
+            message.putUserProperty(MessengerTransactionListener.CLAIM_TOKEN, trans.getClaimToken());
+        }
         if (StringUtils.isNotBlank(trans.getTitle())) {
             message.putUserProperty("title", trans.getTitle());
         }
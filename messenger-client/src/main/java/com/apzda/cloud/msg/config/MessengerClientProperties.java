@@ -16,8 +16,11 @@
  */
 package com.apzda.cloud.msg.config;
 
+import com.apzda.cloud.msg.codec.ContentCodecs;
+import com.apzda.cloud.msg.domain.vo.ClaimStrategy;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 
 import java.time.Duration;
 import java.util.List;
@@ -43,14 +46,98 @@ public class MessengerClientProperties {
 
     private int executorCount = 1;
 
+    /**
+     * 邮件ID生成器的节点号(0-1023)，必须在集群内唯一. 小于0时不使用Snowflake.
+     */
+    private int nodeId = -1;
+
+    /**
+     * 邮件ID生成器. 未设置时，配置了nodeId则使用SNOWFLAKE，否则使用ULID; UUID不按时间递增，只在显式指定时使用.
+     */
+    private IdGenerator idGenerator;
+
+    private int batchSize = 100;
+
+    private ClaimStrategy claimStrategy = ClaimStrategy.UPDATE;
+
+    /**
+     * 派发队列的容量，不大于0(默认)时关闭派发队列，邮件只由按period~maxPeriod的轮询发送.
+     * <p>
+     * 设置为正数(如10000)后，发送者的事务提交后立即派发邮件. 时间轮到期的邮件也经派发队列发送，关闭派发队列的同时也关闭时间轮.
+     */
+    private int dispatchQueueSize = 0;
+
+    private int insertBatchSize = 500;
+
+    private int relayWindow = 0;
+
+    private CommitMode commitMode = CommitMode.UPDATE;
+
+    /**
+     * 时间轮的刻度. 时间轮仅在dispatchQueueSize与wheelCapacity都大于0时启用，此时轮询只按reconcilePeriod对账.
+     */
+    private Duration wheelTick = Duration.ofMillis(100);
+
+    private int wheelSize = 512;
+
+    /**
+     * 时间轮中最多登记的邮件数，小于1(默认)时不使用时间轮. 开启派发队列并设置为正数(如100000)后启用时间轮.
+     */
+    private int wheelCapacity = 0;
+
+    private Duration reconcilePeriod = Duration.ofMinutes(1);
+
+    /**
+     * 邮件内容编解码器: none(默认，不编码), gzip, zstd, lz4或自定义编解码器的名称.
+     * <p>
+     * 编码后的邮件通过codec消息属性标明编解码器，不识别该属性的旧版服务端会把编码后的内容当作正文， 所以须在所有服务端升级后再显式启用.
+     * 启用前写入的邮件没有编解码器，仍按原样读取.
+     */
+    private String codec = ContentCodecs.NONE;
+
+    /**
+     * 内容不小于该值时才编码.
+     */
+    private DataSize codecThreshold = DataSize.ofKilobytes(4);
+
     private Duration delay = Duration.ofSeconds(30);
 
     private Duration period = Duration.ofSeconds(1);
 
+    private Duration maxPeriod = Duration.ofSeconds(30);
+
+    /**
+     * 认领的租期，租期内未完成的邮件由清扫任务退回重试.
+     */
+    private Duration leaseTime = Duration.ofMinutes(5);
+
+    private Duration sweepPeriod = Duration.ofMinutes(1);
+
+    private int sweepBatchSize = 1000;
+
     private List<Duration> retries = List.of(Duration.ofSeconds(10), Duration.ofSeconds(30), Duration.ofMinutes(1),
             Duration.ofMinutes(2), Duration.ofMinutes(3), Duration.ofMinutes(4), Duration.ofMinutes(5),
             Duration.ofMinutes(6), Duration.ofMinutes(7), Duration.ofMinutes(8), Duration.ofMinutes(9),
             Duration.ofMinutes(10), Duration.ofMinutes(20), Duration.ofMinutes(30), Duration.ofHours(1),
             Duration.ofHours(2));
 
+    public enum IdGenerator {
+
+        SNOWFLAKE, ULID, UUID
+
+    }
+
+    public enum CommitMode {
+
+        /**
+         * 先将邮件更新为SENT, 再删除.
+         */
+        UPDATE,
+        /**
+         * 仅按ID与SENDING状态删除邮件.
+         */
+        DELETE
+
+    }
+
 }
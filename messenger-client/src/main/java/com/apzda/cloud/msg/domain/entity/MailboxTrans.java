@@ -44,6 +44,10 @@ public class MailboxTrans {
 
     private String transId;
 
+    private String claimToken;
+
+    private Long leaseExpireAt;
+
     private String title;
 
     private String service;
@@ -58,6 +62,12 @@ public class MailboxTrans {
 
     private String content;
 
+    @TableField(updateStrategy = FieldStrategy.NEVER)
+    private String codec;
+
+    @TableField(updateStrategy = FieldStrategy.NEVER)
+    private byte[] payload;
+
     private Integer retries;
 
     private String remark;
@@ -17,7 +17,16 @@
 package com.apzda.cloud.msg.domain.mapper;
 
 import com.apzda.cloud.msg.domain.entity.MailboxTrans;
+import com.apzda.cloud.msg.domain.vo.MailStatus;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -26,4 +35,62 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  **/
 public interface MailboxTransMapper extends BaseMapper<MailboxTrans> {
 
+    @Insert("""
+            <script>
+            INSERT INTO apzda_mailbox_trans (created_at, next_retry_at, mail_id, title, service, status, postman,
+            recipients, post_time, content, codec, payload, retries) VALUES
+            <foreach collection="mails" item="m" separator=",">
+            (#{m.createdAt}, #{m.nextRetryAt}, #{m.mailId}, #{m.title}, #{m.service}, #{m.status}, #{m.postman},
+            #{m.recipients}, #{m.postTime}, #{m.content}, #{m.codec}, #{m.payload}, #{m.retries})
+            </foreach>
+            </script>
+            """)
+    @Options(useGeneratedKeys = true, keyProperty = "mails.id", keyColumn = "id")
+    int insertAll(@Param("mails") List<MailboxTrans> mails);
+
+    @Update("""
+            UPDATE apzda_mailbox_trans SET status = #{to}, claim_token = #{token}, lease_expire_at = #{lease},
+            updated_at = #{now} WHERE status = #{from} AND next_retry_at <= #{now} ORDER BY next_retry_at
+            LIMIT #{limit}
+            """)
+    int claim(@Param("from") MailStatus from, @Param("to") MailStatus to, @Param("token") String token,
+            @Param("now") long now, @Param("lease") long lease, @Param("limit") int limit);
+
+    @Select("""
+            SELECT id FROM apzda_mailbox_trans WHERE status = #{status} AND next_retry_at <= #{now}
+            ORDER BY next_retry_at LIMIT #{limit} FOR UPDATE SKIP LOCKED
+            """)
+    List<Long> lockDueIds(@Param("status") MailStatus status, @Param("now") long now, @Param("limit") int limit);
+
+    @Update("""
+            <script>
+            UPDATE apzda_mailbox_trans SET status = #{to}, claim_token = #{token}, lease_expire_at = #{lease},
+            updated_at = #{now} WHERE status = #{from} AND next_retry_at &lt;= #{now} AND id IN
+            <foreach collection="ids" item="id" open="(" separator="," close=")">#{id}</foreach>
+            </script>
+            """)
+    int claimByIds(@Param("ids") Collection<Long> ids, @Param("from") MailStatus from, @Param("to") MailStatus to,
+            @Param("token") String token, @Param("now") long now, @Param("lease") long lease);
+
+    @Select("""
+            SELECT * FROM apzda_mailbox_trans WHERE claim_token = #{token} AND status = #{status}
+            ORDER BY next_retry_at
+            """)
+    List<MailboxTrans> listByClaimToken(@Param("token") String token, @Param("status") MailStatus status);
+
+    @Select("""
+            SELECT id, next_retry_at FROM apzda_mailbox_trans WHERE status = #{status}
+            AND next_retry_at > #{from} AND next_retry_at <= #{to} ORDER BY next_retry_at LIMIT #{limit}
+            """)
+    List<MailboxTrans> listScheduled(@Param("status") MailStatus status, @Param("from") long from, @Param("to") long to,
+            @Param("limit") int limit);
+
+    @Update("""
+            UPDATE apzda_mailbox_trans SET status = #{to}, claim_token = NULL, lease_expire_at = NULL,
+            updated_at = #{now} WHERE status = #{from} AND (lease_expire_at BETWEEN 1 AND #{now}
+            OR lease_expire_at = 0 AND COALESCE(updated_at, created_at, 0) <= #{now} - #{lease}) LIMIT #{limit}
+            """)
+    int releaseExpired(@Param("from") MailStatus from, @Param("to") MailStatus to, @Param("now") long now,
+            @Param("lease") long lease, @Param("limit") int limit);
+
 }
@@ -17,10 +17,12 @@
 package com.apzda.cloud.msg.domain.service;
 
 import com.apzda.cloud.msg.domain.entity.MailboxTrans;
+import com.apzda.cloud.msg.domain.vo.ClaimStrategy;
 import com.apzda.cloud.msg.domain.vo.MailStatus;
 import com.baomidou.mybatisplus.extension.service.IService;
 import jakarta.annotation.Nonnull;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -30,8 +32,56 @@ import java.util.List;
  **/
 public interface IMailboxTransService extends IService<MailboxTrans> {
 
+    /**
+     * 使用多行INSERT批量保存邮件.
+     * @param mails 邮件
+     * @param batchSize 每条INSERT语句的行数
+     */
+    void saveAll(@Nonnull List<MailboxTrans> mails, int batchSize);
+
     MailboxTrans getByStatusAndNextRetryAtLe(MailStatus mailStatus, long nextRetryAt);
 
+    /**
+     * 批量认领到期的待发送邮件.
+     * @param strategy 认领策略
+     * @param limit 最多认领的数量
+     * @param nextRetryAt 到期时间
+     * @param token 认领者令牌
+     * @return 已认领(状态为SENDING)的邮件
+     */
+    @Nonnull
+    List<MailboxTrans> claim(@Nonnull ClaimStrategy strategy, int limit, long nextRetryAt, @Nonnull String token);
+
+    /**
+     * 按ID认领待发送邮件.
+     * @param ids 邮件ID
+     * @param now 当前时间
+     * @param token 认领者令牌
+     * @return 已认领(状态为SENDING)的邮件
+     */
+    @Nonnull
+    List<MailboxTrans> claimByIds(@Nonnull Collection<Long> ids, long now, @Nonnull String token);
+
+    /**
+     * 查询将在(from, to]内到期的待发送邮件，仅填充id与nextRetryAt.
+     * @param from 开始时间(不含)
+     * @param to 结束时间
+     * @param limit 最多查询的数量
+     * @return 按到期时间排序的邮件
+     */
+    @Nonnull
+    List<MailboxTrans> listScheduled(long from, long to, int limit);
+
+    /**
+     * 将租期已过的SENDING邮件退回为PENDING，等待重新认领.
+     * <p>
+     * 租期为0的是加入租期前就已在投递中的邮件，按最后更新时间加上租期判断是否过期.
+     * @param now 当前时间
+     * @param limit 最多退回的数量
+     * @return 退回的数量
+     */
+    int releaseExpired(long now, int limit);
+
     boolean updateStatus(MailboxTrans mailboxTrans, MailStatus fromStatus);
 
     @Nonnull
@@ -39,4 +89,20 @@ public interface IMailboxTransService extends IService<MailboxTrans> {
 
     boolean removeByTransId(String transactionId);
 
+    boolean removeByIdAndStatus(Long id, MailStatus status);
+
+    /**
+     * 删除仍由认领者持有的SENDING邮件.
+     * @param mailboxTrans 邮件
+     * @return 是否删除
+     */
+    boolean removeClaimed(MailboxTrans mailboxTrans);
+
+    /**
+     * 将仍由认领者持有的SENDING邮件退回为PENDING并清除认领.
+     * @param mailboxTrans 邮件
+     * @return 是否退回
+     */
+    boolean releaseClaimed(MailboxTrans mailboxTrans);
+
 }
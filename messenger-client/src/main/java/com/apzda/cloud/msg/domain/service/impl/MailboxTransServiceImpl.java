@@ -16,9 +16,11 @@
  */
 package com.apzda.cloud.msg.domain.service.impl;
 
+import com.apzda.cloud.msg.config.MessengerClientProperties;
 import com.apzda.cloud.msg.domain.entity.MailboxTrans;
 import com.apzda.cloud.msg.domain.mapper.MailboxTransMapper;
 import com.apzda.cloud.msg.domain.service.IMailboxTransService;
+import com.apzda.cloud.msg.domain.vo.ClaimStrategy;
 import com.apzda.cloud.msg.domain.vo.MailStatus;
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
@@ -26,7 +28,11 @@ import jakarta.annotation.Nonnull;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -39,6 +45,22 @@ import java.util.List;
 public class MailboxTransServiceImpl extends ServiceImpl<MailboxTransMapper, MailboxTrans>
         implements IMailboxTransService {
 
+    private final TransactionTemplate transactionTemplate;
+
+    private final MessengerClientProperties properties;
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public void saveAll(@Nonnull List<MailboxTrans> mails, int batchSize) {
+        val size = Math.max(1, batchSize);
+        for (int i = 0; i < mails.size(); i += size) {
+            val rows = mails.subList(i, Math.min(i + size, mails.size()));
+            if (baseMapper.insertAll(rows) != rows.size()) {
+                throw new IllegalStateException("Cannot save mails into mailbox: " + rows.size());
+            }
+        }
+    }
+
     @Override
     public MailboxTrans getByStatusAndNextRetryAtLe(MailStatus mailStatus, long nextRetryAt) {
         val con = Wrappers.lambdaQuery(MailboxTrans.class);
@@ -50,11 +72,76 @@ public class MailboxTransServiceImpl extends ServiceImpl<MailboxTransMapper, Mai
         return getOne(con);
     }
 
+    @Nonnull
+    @Override
+    public List<MailboxTrans> claim(@Nonnull ClaimStrategy strategy, int limit, long nextRetryAt,
+            @Nonnull String token) {
+        if (limit < 1) {
+            return Collections.emptyList();
+        }
+
+        val lease = nextRetryAt + properties.getLeaseTime().toMillis();
+        if (strategy == ClaimStrategy.SKIP_LOCKED) {
+            // 锁定的行被其它认领者跳过，不会在同一行上排队
+            val claimed = transactionTemplate.execute(status -> {
+                val ids = baseMapper.lockDueIds(MailStatus.PENDING, nextRetryAt, limit);
+                if (ids.isEmpty()) {
+                    return 0;
+                }
+                return baseMapper.claimByIds(ids, MailStatus.PENDING, MailStatus.SENDING, token, nextRetryAt, lease);
+            });
+            if (claimed == null || claimed == 0) {
+                return Collections.emptyList();
+            }
+        }
+        else if (baseMapper.claim(MailStatus.PENDING, MailStatus.SENDING, token, nextRetryAt, lease, limit) == 0) {
+            return Collections.emptyList();
+        }
+
+        return baseMapper.listByClaimToken(token, MailStatus.SENDING);
+    }
+
+    @Nonnull
+    @Override
+    public List<MailboxTrans> claimByIds(@Nonnull Collection<Long> ids, long now, @Nonnull String token) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        val lease = now + properties.getLeaseTime().toMillis();
+        if (baseMapper.claimByIds(ids, MailStatus.PENDING, MailStatus.SENDING, token, now, lease) == 0) {
+            return Collections.emptyList();
+        }
+
+        return baseMapper.listByClaimToken(token, MailStatus.SENDING);
+    }
+
+    @Nonnull
+    @Override
+    public List<MailboxTrans> listScheduled(long from, long to, int limit) {
+        if (limit <= 0 || to <= from) {
+            return Collections.emptyList();
+        }
+
+        return baseMapper.listScheduled(MailStatus.PENDING, from, to, limit);
+    }
+
+    @Override
+    public int releaseExpired(long now, int limit) {
+        if (limit < 1) {
+            return 0;
+        }
+
+        return baseMapper.releaseExpired(MailStatus.SENDING, MailStatus.PENDING, now,
+                properties.getLeaseTime().toMillis(), limit);
+    }
+
     @Override
     public boolean updateStatus(MailboxTrans mailboxTrans, MailStatus fromStatus) {
         val con = Wrappers.lambdaUpdate(MailboxTrans.class);
         con.eq(MailboxTrans::getStatus, fromStatus);
         con.eq(MailboxTrans::getId, mailboxTrans.getId());
+        // 租期过后邮件可能已被退回或被其它认领者持有
+        con.eq(mailboxTrans.getClaimToken() != null, MailboxTrans::getClaimToken, mailboxTrans.getClaimToken());
 
         return update(mailboxTrans, con);
     }
@@ -76,4 +163,36 @@ public class MailboxTransServiceImpl extends ServiceImpl<MailboxTransMapper, Mai
         return remove(con);
     }
 
+    @Override
+    public boolean removeByIdAndStatus(Long id, MailStatus status) {
+        val con = Wrappers.lambdaQuery(MailboxTrans.class);
+        con.eq(MailboxTrans::getId, id);
+        con.eq(MailboxTrans::getStatus, status);
+
+        return remove(con);
+    }
+
+    @Override
+    public boolean removeClaimed(MailboxTrans mailboxTrans) {
+        val con = Wrappers.lambdaQuery(MailboxTrans.class);
+        con.eq(MailboxTrans::getId, mailboxTrans.getId());
+        con.eq(MailboxTrans::getStatus, MailStatus.SENDING);
+        con.eq(mailboxTrans.getClaimToken() != null, MailboxTrans::getClaimToken, mailboxTrans.getClaimToken());
+
+        return remove(con);
+    }
+
+    @Override
+    public boolean releaseClaimed(MailboxTrans mailboxTrans) {
+        val con = Wrappers.lambdaUpdate(MailboxTrans.class);
+        con.set(MailboxTrans::getStatus, MailStatus.PENDING);
+        con.set(MailboxTrans::getClaimToken, null);
+        con.set(MailboxTrans::getLeaseExpireAt, null);
+        con.eq(MailboxTrans::getId, mailboxTrans.getId());
+        con.eq(MailboxTrans::getStatus, MailStatus.SENDING);
+        con.eq(MailboxTrans::getClaimToken, mailboxTrans.getClaimToken());
+
+        return update(con);
+    }
+
 }
@@ -16,6 +16,7 @@
  */
 package com.apzda.cloud.msg.listener;
 
+import com.apzda.cloud.msg.config.MessengerClientProperties;
 import com.apzda.cloud.msg.domain.entity.MailboxTrans;
 import com.apzda.cloud.msg.domain.service.IMailboxTransService;
 import com.apzda.cloud.msg.domain.vo.MailStatus;
@@ -23,11 +24,15 @@ import jakarta.annotation.Nonnull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.rocketmq.client.producer.LocalTransactionState;
 import org.apache.rocketmq.client.producer.TransactionListener;
 import org.apache.rocketmq.common.message.Message;
 import org.apache.rocketmq.common.message.MessageExt;
 
+import java.time.Clock;
+import java.util.Objects;
+
 /**
  * @author fengz (windywany@gmail.com)
  * @version 1.0.0
@@ -37,12 +42,43 @@ import org.apache.rocketmq.common.message.MessageExt;
 @Slf4j
 public class MessengerTransactionListener implements TransactionListener {
 
+    public static final String OUTBOX_ID = "outboxId";
+
+    public static final String CLAIM_TOKEN = "claimToken";
+
     private final IMailboxTransService mailboxService;
 
+    private final MessengerClientProperties.CommitMode commitMode;
+
+    private final Clock clock;
+
+    public MessengerTransactionListener(IMailboxTransService mailboxService) {
+        this(mailboxService, MessengerClientProperties.CommitMode.UPDATE);
+    }
+
+    public MessengerTransactionListener(IMailboxTransService mailboxService,
+            MessengerClientProperties.CommitMode commitMode) {
+        this(mailboxService, commitMode, Clock.systemDefaultZone());
+    }
+
     @Override
     public LocalTransactionState executeLocalTransaction(@Nonnull Message message, Object o) {
         val transId = message.getTransactionId();
         val mail = (MailboxTrans) o;
+        if (commitMode == MessengerClientProperties.CommitMode.DELETE) {
+            // 一次写入: 删除了仍由本次认领持有的SENDING邮件即提交
+            try {
+                if (mailboxService.removeClaimed(mail)) {
+                    return LocalTransactionState.COMMIT_MESSAGE;
+                }
+                return LocalTransactionState.ROLLBACK_MESSAGE;
+            }
+            catch (Exception e) {
+                log.warn("Cannot remove mail({}) from mailbox: {}", mail.getId(), e.getMessage());
+                return LocalTransactionState.UNKNOW;
+            }
+        }
+
         mail.setStatus(MailStatus.SENT);
         mail.setTransId(transId);
 
@@ -56,6 +92,15 @@ public class MessengerTransactionListener implements TransactionListener {
 
     @Override
     public LocalTransactionState checkLocalTransaction(@Nonnull MessageExt message) {
+        val outboxId = message.getUserProperty(OUTBOX_ID);
+        if (commitMode == MessengerClientProperties.CommitMode.DELETE && StringUtils.isNotBlank(outboxId)) {
+            val mail = mailboxService.getById(Long.parseLong(outboxId));
+            // 邮件已不存在说明本地事务已提交
+            if (mail == null) {
+                return LocalTransactionState.COMMIT_MESSAGE;
+            }
+            return checkClaimed(mail, message.getUserProperty(CLAIM_TOKEN));
+        }
         // 理论上到不了这里.
         if (mailboxService.removeByTransId(message.getTransactionId())) {
             return LocalTransactionState.COMMIT_MESSAGE;
@@ -65,4 +110,23 @@ public class MessengerTransactionListener implements TransactionListener {
         }
     }
 
+    @Nonnull
+    private LocalTransactionState checkClaimed(@Nonnull MailboxTrans mail, String claimToken) {
+        if (mail.getStatus() != MailStatus.SENDING || StringUtils.isBlank(claimToken)
+                || !Objects.equals(claimToken, mail.getClaimToken())) {
+            // 已被退回或被其它认领者持有，由其重新投递
+            return LocalTransactionState.ROLLBACK_MESSAGE;
+        }
+        val leaseExpireAt = mail.getLeaseExpireAt();
+        if (leaseExpireAt != null && leaseExpireAt > clock.millis()) {
+            // 认领仍然有效，本地事务可能尚未结束
+            return LocalTransactionState.UNKNOW;
+        }
+        // 认领已过期: 退回为PENDING后回滚，邮件将被重新认领投递
+        if (!mailboxService.releaseClaimed(mail)) {
+            return LocalTransactionState.UNKNOW;
+        }
+        return LocalTransactionState.ROLLBACK_MESSAGE;
+    }
+
 }
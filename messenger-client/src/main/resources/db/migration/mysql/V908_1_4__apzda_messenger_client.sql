@@ -0,0 +1,7 @@
+alter table `apzda_mailbox_trans`
+    add lease_expire_at BIGINT UNSIGNED null DEFAULT NULL comment 'The lease expiry of the claim' after claim_token,
+    add INDEX IDX_LEASE (status, lease_expire_at) using btree;
+
+update `apzda_mailbox_trans`
+set lease_expire_at = 0
+where status = 'SENDING';
@@ -0,0 +1,91 @@
+package com.apzda.cloud.msg.client;
+
+import cn.hutool.core.util.RandomUtil;
+import com.apzda.cloud.msg.Messenger;
+import com.apzda.cloud.msg.TextMail;
+import com.apzda.cloud.msg.autoconfig.MessengerClientAutoConfiguration;
+import com.apzda.cloud.msg.codec.ContentCodecs;
+import com.apzda.cloud.msg.domain.entity.MailboxTrans;
+import com.apzda.cloud.msg.domain.service.IMailboxTransService;
+import com.apzda.cloud.msg.domain.vo.MailStatus;
+import com.apzda.cloud.test.autoconfig.AutoConfigureGsvcTest;
+import com.baomidou.mybatisplus.test.autoconfigure.MybatisPlusTest;
+import lombok.val;
+import org.apache.rocketmq.spring.autoconfigure.RocketMQAutoConfiguration;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@MybatisPlusTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ContextConfiguration(classes = MessengerImplTest.class)
+@AutoConfigureGsvcTest
+@ImportAutoConfiguration({ RocketMQAutoConfiguration.class, MessengerClientAutoConfiguration.class })
+@TestPropertySource(properties = { "apzda.cloud.messenger.codec=gzip", "apzda.cloud.messenger.codec-threshold=1KB" })
+class MessengerCodecTest {
+
+    @Autowired
+    private Messenger messenger;
+
+    @Autowired
+    private IMailboxTransService mailboxTransService;
+
+    @Test
+    void content_should_be_encoded_from_threshold() {
+        // given
+        val atThreshold = new TextMail(RandomUtil.randomString(32), "rocketmq", "a".repeat(1024));
+        atThreshold.setRecipients("test:demo");
+        val belowThreshold = new TextMail(RandomUtil.randomString(32), "rocketmq", "a".repeat(1023));
+        belowThreshold.setRecipients("test:demo");
+
+        // when
+        messenger.sendAll(List.of(atThreshold, belowThreshold));
+
+        // then
+        val encoded = mailboxTransService.listByMailId(atThreshold.getId()).get(0);
+        assertThat(encoded.getCodec()).isEqualTo("gzip");
+        assertThat(encoded.getContent()).isNull();
+        assertThat(ContentCodecs.decode(encoded.getCodec(), encoded.getPayload())).isEqualTo(atThreshold.getContent());
+        val plain = mailboxTransService.listByMailId(belowThreshold.getId()).get(0);
+        assertThat(plain.getCodec()).isNull();
+        assertThat(plain.getPayload()).isNull();
+        assertThat(plain.getContent()).isEqualTo(belowThreshold.getContent());
+    }
+
+    @Test
+    void legacy_rows_should_be_read_as_is() {
+        // given: 启用编码前写入的邮件
+        val content = "a".repeat(2048);
+        val legacy = new MailboxTrans();
+        legacy.setMailId(RandomUtil.randomString(32));
+        legacy.setPostman("rocketmq");
+        legacy.setRecipients("test:demo");
+        legacy.setStatus(MailStatus.PENDING);
+        legacy.setContent(content);
+        legacy.setCreatedAt(System.currentTimeMillis());
+        legacy.setNextRetryAt(legacy.getCreatedAt());
+        legacy.setPostTime(legacy.getCreatedAt());
+        legacy.setRetries(0);
+        mailboxTransService.save(legacy);
+
+        // when
+        val trans = mailboxTransService.getById(legacy.getId());
+
+        // then
+        assertThat(trans.getCodec()).isNull();
+        assertThat(ContentCodecs.decode(trans.getCodec(), trans.getPayload(), trans.getContent())).isEqualTo(content);
+    }
+
+}
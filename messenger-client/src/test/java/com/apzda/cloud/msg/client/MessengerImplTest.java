@@ -2,14 +2,25 @@ package com.apzda.cloud.msg.client;
 
 import cn.hutool.core.util.RandomUtil;
 import com.apzda.cloud.msg.Messenger;
+import com.apzda.cloud.msg.SendFailure;
 import com.apzda.cloud.msg.TextMail;
 import com.apzda.cloud.msg.autoconfig.MessengerClientAutoConfiguration;
+import com.apzda.cloud.msg.config.MessengerClientProperties;
+import com.apzda.cloud.msg.domain.entity.MailboxTrans;
 import com.apzda.cloud.msg.domain.service.IMailboxTransService;
+import com.apzda.cloud.msg.domain.vo.ClaimStrategy;
+import com.apzda.cloud.msg.domain.vo.MailStatus;
+import com.apzda.cloud.msg.listener.MessengerTransactionListener;
 import com.apzda.cloud.test.autoconfig.AutoConfigureGsvcTest;
 import com.baomidou.mybatisplus.test.autoconfigure.MybatisPlusTest;
 import lombok.val;
+import org.apache.rocketmq.client.producer.LocalTransactionState;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.spring.autoconfigure.RocketMQAutoConfiguration;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -22,7 +33,11 @@ import org.springframework.test.context.ContextConfiguration;
 import org.testcontainers.containers.MySQLContainer;
 import org.testcontainers.utility.DockerImageName;
 
+import java.time.Clock;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -44,6 +59,9 @@ class MessengerImplTest {
     @Autowired
     private IMailboxTransService mailboxTransService;
 
+    @Autowired
+    private MessengerClientProperties properties;
+
     @Test
     @Commit
     void mail_should_be_sent_ok() {
@@ -63,6 +81,240 @@ class MessengerImplTest {
         assertThat(trans.size()).isEqualTo(1);
     }
 
+    @Test
+    void mails_should_be_sent_in_bulk() {
+        // given
+        val ok1 = new TextMail(RandomUtil.randomString(32), "rocketmq", "test 1");
+        ok1.setRecipients("test:demo");
+        val ok2 = new TextMail(RandomUtil.randomString(32), "rocketmq", "test 2");
+        ok2.setRecipients("test:demo");
+        val bad = new TextMail(RandomUtil.randomString(32), null, "test 3");
+
+        // when
+        val failures = messenger.sendAll(List.of(ok1, bad, ok2));
+
+        // then
+        assertThat(failures).hasSize(1);
+        assertThat(failures.get(0).mail()).isSameAs(bad);
+        assertThat(mailboxTransService.listByMailId(ok1.getId())).hasSize(1);
+        assertThat(mailboxTransService.listByMailId(ok2.getId())).hasSize(1);
+        assertThat(mailboxTransService.listByMailId(bad.getId())).isEmpty();
+    }
+
+    @Test
+    void mails_without_recipients_should_fail_in_bulk() {
+        // given
+        val ok = new TextMail(RandomUtil.randomString(32), "rocketmq", "test");
+        ok.setRecipients("test:demo");
+        val blank = new TextMail(RandomUtil.randomString(32), "rocketmq", "test");
+        blank.setRecipients(" ");
+        val missing = new TextMail(RandomUtil.randomString(32), "rocketmq", "test");
+
+        // when
+        val failures = messenger.sendAll(List.of(blank, ok, missing));
+
+        // then
+        assertThat(failures).extracting(SendFailure::mail).containsExactly(blank, missing);
+        assertThat(failures).allSatisfy(failure -> assertThat(failure.reason()).contains("recipients"));
+        assertThat(mailboxTransService.listByMailId(ok.getId())).hasSize(1);
+        assertThat(mailboxTransService.listByMailId(blank.getId())).isEmpty();
+        assertThat(mailboxTransService.listByMailId(missing.getId())).isEmpty();
+    }
+
+    @ParameterizedTest
+    @EnumSource(ClaimStrategy.class)
+    void mails_should_be_claimed_in_batch(ClaimStrategy strategy) {
+        // given
+        val ids = List.of(RandomUtil.randomString(32), RandomUtil.randomString(32), RandomUtil.randomString(32));
+        for (String id : ids) {
+            val mail = new TextMail(id, "rocketmq", "test");
+            mail.setRecipients("test:demo");
+            messenger.send(mail);
+        }
+        val token = RandomUtil.randomString(32);
+
+        // when
+        val claimed = mailboxTransService.claim(strategy, 100, System.currentTimeMillis(), token);
+
+        // then
+        assertThat(claimed).extracting(MailboxTrans::getMailId).containsAll(ids);
+        assertThat(claimed).allMatch(trans -> trans.getStatus() == MailStatus.SENDING);
+        assertThat(claimed).allMatch(trans -> token.equals(trans.getClaimToken()));
+        assertThat(mailboxTransService.claim(strategy, 100, System.currentTimeMillis(), RandomUtil.randomString(32)))
+            .extracting(MailboxTrans::getMailId)
+            .doesNotContainAnyElementsOf(ids);
+    }
+
+    @Test
+    void only_due_mails_should_be_claimed_by_ids() {
+        // given
+        val due = new TextMail(RandomUtil.randomString(32), "rocketmq", "test due");
+        due.setRecipients("test:demo");
+        val postponed = new TextMail(RandomUtil.randomString(32), "rocketmq", "test postponed");
+        postponed.setRecipients("test:demo");
+        messenger.sendAll(List.of(due, postponed));
+        val now = System.currentTimeMillis();
+        val dueId = mailboxTransService.listByMailId(due.getId()).get(0).getId();
+        val postponedId = mailboxTransService.listByMailId(postponed.getId()).get(0).getId();
+        mailboxTransService.lambdaUpdate()
+            .set(MailboxTrans::getNextRetryAt, now + 60000)
+            .eq(MailboxTrans::getId, postponedId)
+            .update();
+
+        // when
+        val claimed = mailboxTransService.claimByIds(List.of(dueId, postponedId), now, RandomUtil.randomString(32));
+
+        // then
+        assertThat(claimed).extracting(MailboxTrans::getId).containsExactly(dueId);
+        assertThat(claimed).allMatch(trans -> trans.getStatus() == MailStatus.SENDING);
+        assertThat(mailboxTransService.getById(postponedId).getStatus()).isEqualTo(MailStatus.PENDING);
+    }
+
+    @Test
+    void expired_leases_should_be_released() {
+        // given
+        val id = RandomUtil.randomString(32);
+        val mail = new TextMail(id, "rocketmq", "test");
+        mail.setRecipients("test:demo");
+        messenger.send(mail);
+        val now = System.currentTimeMillis();
+        val claimed = mailboxTransService.claim(ClaimStrategy.UPDATE, 100, now, RandomUtil.randomString(32));
+        assertThat(claimed).extracting(MailboxTrans::getMailId).contains(id);
+        assertThat(claimed).allMatch(trans -> trans.getLeaseExpireAt() != null && trans.getLeaseExpireAt() > now);
+
+        // when
+        val released = mailboxTransService.releaseExpired(claimed.get(0).getLeaseExpireAt() + 1000, 1000);
+
+        // then
+        assertThat(released).isGreaterThanOrEqualTo(1);
+        val trans = mailboxTransService.listByMailId(id);
+        assertThat(trans).hasSize(1);
+        assertThat(trans.get(0).getStatus()).isEqualTo(MailStatus.PENDING);
+        assertThat(trans.get(0).getClaimToken()).isNull();
+    }
+
+    @Test
+    void legacy_claims_should_be_released_after_lease_time() {
+        // given: 加入租期前就已在投递中的邮件
+        val id = RandomUtil.randomString(32);
+        val mail = new TextMail(id, "rocketmq", "test");
+        mail.setRecipients("test:demo");
+        messenger.send(mail);
+        val now = System.currentTimeMillis();
+        val legacy = mailboxTransService.listByMailId(id).get(0);
+        legacy.setStatus(MailStatus.SENDING);
+        legacy.setLeaseExpireAt(0L);
+        legacy.setUpdatedAt(now);
+        mailboxTransService.updateById(legacy);
+        val expireAt = mailboxTransService.getById(legacy.getId()).getUpdatedAt()
+                + properties.getLeaseTime().toMillis();
+
+        // when
+        mailboxTransService.releaseExpired(expireAt - 1000, 1000);
+
+        // then
+        assertThat(mailboxTransService.getById(legacy.getId()).getStatus()).isEqualTo(MailStatus.SENDING);
+        mailboxTransService.releaseExpired(expireAt, 1000);
+        assertThat(mailboxTransService.getById(legacy.getId()).getStatus()).isEqualTo(MailStatus.PENDING);
+    }
+
+    @Test
+    void unknown_transaction_should_be_checked_against_claim() {
+        // given
+        val id = RandomUtil.randomString(32);
+        val mail = new TextMail(id, "rocketmq", "test");
+        mail.setRecipients("test:demo");
+        messenger.send(mail);
+        val now = System.currentTimeMillis();
+        val token = RandomUtil.randomString(32);
+        val claimed = mailboxTransService.claim(ClaimStrategy.UPDATE, 100, now, token)
+            .stream()
+            .filter(trans -> id.equals(trans.getMailId()))
+            .findFirst()
+            .orElseThrow();
+        val message = new MessageExt();
+        message.putUserProperty(MessengerTransactionListener.OUTBOX_ID, String.valueOf(claimed.getId()));
+        message.putUserProperty(MessengerTransactionListener.CLAIM_TOKEN, token);
+        val stale = new MessageExt();
+        stale.putUserProperty(MessengerTransactionListener.OUTBOX_ID, String.valueOf(claimed.getId()));
+        stale.putUserProperty(MessengerTransactionListener.CLAIM_TOKEN, RandomUtil.randomString(32));
+        val leased = listener(now);
+        val expired = listener(claimed.getLeaseExpireAt() + 1000);
+
+        // when
+        val inLease = leased.checkLocalTransaction(message);
+        val otherClaim = expired.checkLocalTransaction(stale);
+        val afterLease = expired.checkLocalTransaction(message);
+
+        // then
+        assertThat(inLease).isEqualTo(LocalTransactionState.UNKNOW);
+        assertThat(otherClaim).isEqualTo(LocalTransactionState.ROLLBACK_MESSAGE);
+        assertThat(afterLease).isEqualTo(LocalTransactionState.ROLLBACK_MESSAGE);
+        val trans = mailboxTransService.getById(claimed.getId());
+        assertThat(trans.getStatus()).isEqualTo(MailStatus.PENDING);
+        assertThat(trans.getClaimToken()).isNull();
+        assertThat(trans.getLeaseExpireAt()).isNull();
+
+        // when the local transaction has committed
+        mailboxTransService.removeById(claimed.getId());
+
+        // then
+        assertThat(leased.checkLocalTransaction(message)).isEqualTo(LocalTransactionState.COMMIT_MESSAGE);
+    }
+
+    @Test
+    void claimed_mail_should_be_removed_on_commit() {
+        // given
+        val id = RandomUtil.randomString(32);
+        val mail = new TextMail(id, "rocketmq", "test");
+        mail.setRecipients("test:demo");
+        messenger.send(mail);
+        val now = System.currentTimeMillis();
+        val claimed = mailboxTransService.claim(ClaimStrategy.UPDATE, 100, now, RandomUtil.randomString(32))
+            .stream()
+            .filter(trans -> id.equals(trans.getMailId()))
+            .findFirst()
+            .orElseThrow();
+
+        // when
+        val state = listener(now).executeLocalTransaction(new Message(), claimed);
+
+        // then
+        assertThat(state).isEqualTo(LocalTransactionState.COMMIT_MESSAGE);
+        assertThat(mailboxTransService.getById(claimed.getId())).isNull();
+    }
+
+    @Test
+    void released_mail_should_be_rolled_back_on_commit() {
+        // given
+        val id = RandomUtil.randomString(32);
+        val mail = new TextMail(id, "rocketmq", "test");
+        mail.setRecipients("test:demo");
+        messenger.send(mail);
+        val now = System.currentTimeMillis();
+        val claimed = mailboxTransService.claim(ClaimStrategy.UPDATE, 100, now, RandomUtil.randomString(32))
+            .stream()
+            .filter(trans -> id.equals(trans.getMailId()))
+            .findFirst()
+            .orElseThrow();
+        // 认领过期后被退回，本次认领已不再持有该邮件
+        assertThat(mailboxTransService.releaseClaimed(claimed)).isTrue();
+
+        // when
+        val state = listener(now).executeLocalTransaction(new Message(), claimed);
+
+        // then
+        assertThat(state).isEqualTo(LocalTransactionState.ROLLBACK_MESSAGE);
+        val trans = mailboxTransService.getById(claimed.getId());
+        assertThat(trans).isNotNull();
+        assertThat(trans.getStatus()).isEqualTo(MailStatus.PENDING);
+    }
+
+    private MessengerTransactionListener listener(long now) {
+        return new MessengerTransactionListener(mailboxTransService, MessengerClientProperties.CommitMode.DELETE,
+                Clock.fixed(Instant.ofEpochMilli(now), ZoneId.systemDefault()));
+    }
+
     @TestConfiguration(proxyBeanMethods = false)
     @ConditionalOnProperty(name = "skip.container", havingValue = "no", matchIfMissing = true)
     static class TestConfig {
@@ -70,8 +322,7 @@ class MessengerImplTest {
         @Bean
         @ServiceConnection
         MySQLContainer<?> mysql() {
-            return new MySQLContainer<>(DockerImageName.parse("mysql:8.0.35"))
-                .withDatabaseName("demo_db")
+            return new MySQLContainer<>(DockerImageName.parse("mysql:8.0.35")).withDatabaseName("demo_db")
                 .withUsername("root")
                 .withPassword("Abc12332!")
                 .withStartupTimeout(Duration.ofMinutes(3));
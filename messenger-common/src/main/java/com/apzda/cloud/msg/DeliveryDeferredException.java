@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg;
+
+import jakarta.annotation.Nonnull;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * 暂时不能投递(如被限速)，邮件将在{@link #getRetryAfter()}之后重新投递，不计入重试次数.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Getter
+public class DeliveryDeferredException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public DeliveryDeferredException(String message, @Nonnull Duration retryAfter) {
+        super(message, null, false, false);
+        this.retryAfter = retryAfter;
+    }
+
+}
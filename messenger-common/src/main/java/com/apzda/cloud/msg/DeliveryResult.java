@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg;
+
+import cn.hutool.core.exceptions.ExceptionUtil;
+import jakarta.annotation.Nonnull;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+
+/**
+ * 投递结果.
+ *
+ * @param status 结果
+ * @param reason 失败原因
+ * @param retryAfter 推迟投递时多久后重新投递
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public record DeliveryResult(@Nonnull Status status, String reason, @Nonnull Duration retryAfter) {
+
+    private static final DeliveryResult DELIVERED = new DeliveryResult(Status.DELIVERED, null, Duration.ZERO);
+
+    @Nonnull
+    public static DeliveryResult delivered() {
+        return DELIVERED;
+    }
+
+    /**
+     * 暂时不能投递(如被限速)，稍后重新投递，不计入重试次数.
+     * @param retryAfter 多久后重新投递
+     * @return 投递结果
+     */
+    @Nonnull
+    public static DeliveryResult deferred(@Nonnull Duration retryAfter) {
+        return new DeliveryResult(Status.DEFERRED, null, retryAfter);
+    }
+
+    /**
+     * 临时失败，按重试策略重试.
+     * @param reason 原因
+     * @return 投递结果
+     */
+    @Nonnull
+    public static DeliveryResult transientFailure(String reason) {
+        return new DeliveryResult(Status.TRANSIENT_FAILURE, reason, Duration.ZERO);
+    }
+
+    /**
+     * 永久失败，重试也不会成功，不再重试.
+     * @param reason 原因
+     * @return 投递结果
+     */
+    @Nonnull
+    public static DeliveryResult permanentFailure(String reason) {
+        return new DeliveryResult(Status.PERMANENT_FAILURE, reason, Duration.ZERO);
+    }
+
+    /**
+     * 将投递异常转换为投递结果: {@link DeliveryDeferredException}为推迟投递，其它异常为临时失败.
+     * @param error 异常
+     * @return 投递结果
+     */
+    @Nonnull
+    public static DeliveryResult of(@Nonnull Throwable error) {
+        final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause()
+                : error;
+        if (cause instanceof DeliveryDeferredException deferred) {
+            return deferred(deferred.getRetryAfter());
+        }
+        return transientFailure(ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(cause)));
+    }
+
+    public enum Status {
+
+        DELIVERED, DEFERRED, TRANSIENT_FAILURE, PERMANENT_FAILURE
+
+    }
+
+}
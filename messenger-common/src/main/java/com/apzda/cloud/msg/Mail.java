@@ -16,13 +16,12 @@
  */
 package com.apzda.cloud.msg;
 
+import com.apzda.cloud.msg.id.MailIdGenerators;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.apache.commons.lang3.StringUtils;
 
-import java.util.UUID;
-
 /**
  * @author fengz (windywany@gmail.com)
  * @version 1.0.0
@@ -52,7 +51,7 @@ public abstract class Mail<T> implements IMail<T> {
 
     public String getId() {
         if (StringUtils.isBlank(id)) {
-            id = UUID.randomUUID().toString();
+            id = MailIdGenerators.nextId();
         }
         return id;
     }
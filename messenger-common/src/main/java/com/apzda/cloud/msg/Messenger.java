@@ -17,6 +17,11 @@
 package com.apzda.cloud.msg;
 
 import jakarta.annotation.Nonnull;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -27,4 +32,23 @@ public interface Messenger {
 
     void send(@Nonnull IMail<?> mail);
 
+    /**
+     * 批量发送邮件.
+     * @param mails 邮件
+     * @return 未能发送的邮件，全部发送成功时为空
+     */
+    @Nonnull
+    default List<SendFailure> sendAll(@Nonnull Collection<? extends IMail<?>> mails) {
+        val failures = new ArrayList<SendFailure>();
+        for (IMail<?> mail : mails) {
+            try {
+                send(mail);
+            }
+            catch (Exception e) {
+                failures.add(new SendFailure(mail, e.getMessage()));
+            }
+        }
+        return failures;
+    }
+
 }
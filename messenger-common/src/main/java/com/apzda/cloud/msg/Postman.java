@@ -18,6 +18,13 @@ package com.apzda.cloud.msg;
 
 import jakarta.annotation.Nonnull;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 /**
  * @author fengz (windywany@gmail.com)
  * @version 1.0.0
@@ -27,8 +34,78 @@ public interface Postman<T, E extends IMail<T>> {
 
     boolean supports(@Nonnull String postman);
 
+    /**
+     * 支持的邮递员名称，用于按名称直接查找邮递员.
+     * @return 为空时只能通过{@link #supports(String)}匹配
+     */
+    @Nonnull
+    default Set<String> names() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * 投递邮件.
+     * @param message 邮件
+     * @return 是否投递成功
+     * @throws DeliveryDeferredException 暂时不能投递，稍后重新投递
+     */
     boolean deliver(@Nonnull E message);
 
+    /**
+     * 异步投递邮件. I/O密集的邮递员应覆盖该方法，不阻塞投递线程.
+     * <p>
+     * 默认在调用线程中执行{@link #deliver(IMail)}: 返回false为临时失败，
+     * 抛出{@link DeliveryDeferredException}为推迟投递，其它异常以异常结束(按临时失败处理).
+     * @param message 邮件
+     * @return 投递完成时结束
+     */
+    @Nonnull
+    default CompletionStage<DeliveryResult> deliverAsync(@Nonnull E message) {
+        try {
+            return CompletableFuture
+                .completedFuture(deliver(message) ? DeliveryResult.delivered() : DeliveryResult.transientFailure(null));
+        }
+        catch (DeliveryDeferredException e) {
+            return CompletableFuture.completedFuture(DeliveryResult.deferred(e.getRetryAfter()));
+        }
+        catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * 是否支持批量投递. 支持时投递阶段按邮递员与收件人分组攒批后调用{@link #deliverBatch(List)}，
+     * 批量接口(群发短信、RocketMQ批量发送等)可以分摊每次调用的开销.
+     * @return 默认不支持
+     */
+    default boolean supportsBatch() {
+        return false;
+    }
+
+    /**
+     * 批量投递邮件，同一批邮件的邮递员与收件人相同.
+     * <p>
+     * 默认逐一调用{@link #deliverAsync(IMail)}，某封邮件异常结束时转换为该邮件的投递结果.
+     * @param messages 邮件
+     * @return 与messages一一对应的投递结果
+     */
+    @Nonnull
+    default CompletionStage<List<DeliveryResult>> deliverBatch(@Nonnull List<E> messages) {
+        final List<CompletableFuture<DeliveryResult>> futures = new ArrayList<>(messages.size());
+        for (E message : messages) {
+            CompletableFuture<DeliveryResult> future;
+            try {
+                future = deliverAsync(message).toCompletableFuture();
+            }
+            catch (Exception e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            futures.add(future.exceptionally(DeliveryResult::of));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+            .thenApply(v -> futures.stream().map(CompletableFuture::join).toList());
+    }
+
     @Nonnull
     E encapsulate(String id, String postman, String content);
 
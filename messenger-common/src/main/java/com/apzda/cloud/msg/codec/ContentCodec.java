@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.codec;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * 邮件内容编解码器.
+ * <p>
+ * 自定义的编解码器可以通过{@link java.util.ServiceLoader}或{@link ContentCodecs#register(ContentCodec)}注册.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public interface ContentCodec {
+
+    /**
+     * @return 编解码器名称，随消息一起传递，不超过16个字符
+     */
+    @Nonnull
+    String getName();
+
+    @Nonnull
+    byte[] encode(@Nonnull byte[] data);
+
+    @Nonnull
+    byte[] decode(@Nonnull byte[] data);
+
+}
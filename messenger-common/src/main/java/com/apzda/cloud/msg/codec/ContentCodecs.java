@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.codec;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 已注册的邮件内容编解码器.
+ * <p>
+ * 内置gzip; 类路径中有zstd-jni或lz4-java时同时注册zstd与lz4.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public final class ContentCodecs {
+
+    /**
+     * 携带编解码器名称的消息属性.
+     */
+    public static final String PROPERTY = "codec";
+
+    public static final String NONE = "none";
+
+    private static final Map<String, ContentCodec> CODECS = new ConcurrentHashMap<>();
+
+    static {
+        register(new GzipContentCodec());
+        // zstd-jni与lz4-java是可选依赖，只能通过反射加载依赖它们的编解码器
+        registerIfPresent("com.github.luben.zstd.Zstd", "com.apzda.cloud.msg.codec.ZstdContentCodec");
+        registerIfPresent("net.jpountz.lz4.LZ4Factory", "com.apzda.cloud.msg.codec.Lz4ContentCodec");
+        for (ContentCodec codec : ServiceLoader.load(ContentCodec.class)) {
+            register(codec);
+        }
+    }
+
+    private ContentCodecs() {
+    }
+
+    public static void register(@Nonnull ContentCodec codec) {
+        val name = codec.getName();
+        if (StringUtils.isBlank(name) || NONE.equalsIgnoreCase(name)) {
+            throw new IllegalArgumentException("Invalid codec name: " + name);
+        }
+        CODECS.put(name.toLowerCase(), codec);
+        log.debug("Content codec registered: {}", name);
+    }
+
+    /**
+     * 按名称查找编解码器.
+     * @param name 名称
+     * @return 名称为空或为none时返回null
+     * @throws IllegalArgumentException 编解码器不存在
+     */
+    @Nullable
+    public static ContentCodec get(@Nullable String name) {
+        if (StringUtils.isBlank(name) || NONE.equalsIgnoreCase(name)) {
+            return null;
+        }
+        val codec = CODECS.get(name.toLowerCase());
+        if (codec == null) {
+            throw new IllegalArgumentException("Content codec not found: " + name);
+        }
+        return codec;
+    }
+
+    /**
+     * 解码为字符串.
+     * @param name 编解码器名称
+     * @param payload 编码后的内容
+     * @return 原始内容
+     */
+    @Nullable
+    public static String decode(@Nullable String name, @Nullable byte[] payload) {
+        if (payload == null) {
+            return null;
+        }
+        val codec = get(name);
+        val data = codec == null ? payload : codec.decode(payload);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 读取邮件内容. 没有编解码器的邮件(包括启用编码前写入的旧数据)的内容原样保存在content中.
+     * @param name 编解码器名称
+     * @param payload 编码后的内容
+     * @param content 未编码的内容
+     * @return 原始内容
+     */
+    @Nullable
+    public static String decode(@Nullable String name, @Nullable byte[] payload, @Nullable String content) {
+        if (StringUtils.isBlank(name)) {
+            return content;
+        }
+        return decode(name, payload);
+    }
+
+    private static void registerIfPresent(String dependency, String codecClass) {
+        if (!isPresent(dependency)) {
+            return;
+        }
+        try {
+            val clazz = Class.forName(codecClass, true, ContentCodecs.class.getClassLoader());
+            register((ContentCodec) clazz.getDeclaredConstructor().newInstance());
+        }
+        catch (Throwable e) {
+            log.warn("Cannot register content codec {}: {}", codecClass, e.getMessage());
+        }
+    }
+
+    private static boolean isPresent(String className) {
+        try {
+            Class.forName(className, false, ContentCodecs.class.getClassLoader());
+            return true;
+        }
+        catch (Throwable e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.codec;
+
+import jakarta.annotation.Nonnull;
+import lombok.val;
+import net.jpountz.lz4.LZ4Factory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 需要lz4-java. 编码结果为4字节原始长度(大端)加LZ4块.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public class Lz4ContentCodec implements ContentCodec {
+
+    private final LZ4Factory factory = LZ4Factory.fastestInstance();
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    @Nonnull
+    @Override
+    public byte[] encode(@Nonnull byte[] data) {
+        val compressor = factory.fastCompressor();
+        val out = new byte[4 + compressor.maxCompressedLength(data.length)];
+        ByteBuffer.wrap(out).putInt(data.length);
+        val length = compressor.compress(data, 0, data.length, out, 4);
+        return Arrays.copyOf(out, 4 + length);
+    }
+
+    @Nonnull
+    @Override
+    public byte[] decode(@Nonnull byte[] data) {
+        val length = ByteBuffer.wrap(data).getInt();
+        return factory.fastDecompressor().decompress(data, 4, length);
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.codec;
+
+import com.github.luben.zstd.Zstd;
+import jakarta.annotation.Nonnull;
+
+/**
+ * 需要zstd-jni.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public class ZstdContentCodec implements ContentCodec {
+
+    private final int level;
+
+    public ZstdContentCodec() {
+        this(3);
+    }
+
+    public ZstdContentCodec(int level) {
+        this.level = level;
+    }
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return "zstd";
+    }
+
+    @Nonnull
+    @Override
+    public byte[] encode(@Nonnull byte[] data) {
+        return Zstd.compress(data, level);
+    }
+
+    @Nonnull
+    @Override
+    public byte[] decode(@Nonnull byte[] data) {
+        // Zstd.compress会在帧头中写入原始长度
+        return Zstd.decompress(data, (int) Zstd.decompressedSize(data));
+    }
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.domain.vo;
+
+/**
+ * 认领到期邮件的策略.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public enum ClaimStrategy {
+
+    /**
+     * 使用 UPDATE ... ORDER BY ... LIMIT 认领, 多个认领者会在相同的行上排队.
+     */
+    UPDATE,
+    /**
+     * 使用 SELECT ... FOR UPDATE SKIP LOCKED 认领(MySQL 8+), 多个认领者拿到互不相交的行.
+     */
+    SKIP_LOCKED
+
+}
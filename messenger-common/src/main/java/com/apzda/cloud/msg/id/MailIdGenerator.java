@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.id;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * 邮件ID生成器.
+ * <p>
+ * 可以通过{@link java.util.ServiceLoader}或{@link MailIdGenerators#set(MailIdGenerator)}替换默认的生成器.
+ * 生成的ID最长64个字符，应尽量按时间递增，以便数据库索引按顺序追加.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public interface MailIdGenerator {
+
+    /**
+     * @return 新的邮件ID
+     */
+    @Nonnull
+    String nextId();
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.id;
+
+import jakarta.annotation.Nonnull;
+
+import java.util.ServiceLoader;
+
+/**
+ * 当前使用的邮件ID生成器. 未设置且没有通过{@link ServiceLoader}提供时使用按时间递增的{@link UlidMailIdGenerator}.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public final class MailIdGenerators {
+
+    private static volatile MailIdGenerator generator;
+
+    private MailIdGenerators() {
+    }
+
+    @Nonnull
+    public static MailIdGenerator get() {
+        MailIdGenerator current = generator;
+        if (current == null) {
+            synchronized (MailIdGenerators.class) {
+                current = generator;
+                if (current == null) {
+                    current = ServiceLoader.load(MailIdGenerator.class).findFirst().orElseGet(UlidMailIdGenerator::new);
+                    generator = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    public static void set(@Nonnull MailIdGenerator generator) {
+        MailIdGenerators.generator = generator;
+    }
+
+    @Nonnull
+    public static String nextId() {
+        return get().nextId();
+    }
+
+}
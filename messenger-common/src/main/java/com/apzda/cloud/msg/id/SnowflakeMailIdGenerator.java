@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.id;
+
+import jakarta.annotation.Nonnull;
+import lombok.val;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按时间递增的邮件ID生成器(Snowflake).
+ * <p>
+ * ID由41位毫秒时间戳、10位节点号和12位序号组成，编码为13位定长的36进制字符串，字典序与数值序一致.
+ * 同一毫秒内序号用尽或时钟回拨时借用后续的时间戳，保证单个节点内严格递增且无锁. 节点号必须在集群内唯一，否则不同节点可能生成相同的ID.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public class SnowflakeMailIdGenerator implements MailIdGenerator {
+
+    /**
+     * 2024-01-01T00:00:00Z.
+     */
+    public static final long EPOCH = 1704067200000L;
+
+    public static final int MAX_NODE_ID = 1023;
+
+    private static final int NODE_BITS = 10;
+
+    private static final int SEQUENCE_BITS = 12;
+
+    private static final int LENGTH = 13;
+
+    private static final char[] DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz".toCharArray();
+
+    private final AtomicLong state = new AtomicLong();
+
+    private final long node;
+
+    private final Clock clock;
+
+    public SnowflakeMailIdGenerator(int nodeId) {
+        this(nodeId, Clock.systemUTC());
+    }
+
+    public SnowflakeMailIdGenerator(int nodeId, @Nonnull Clock clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("nodeId must be between 0 and " + MAX_NODE_ID);
+        }
+        this.node = (long) nodeId << SEQUENCE_BITS;
+        this.clock = clock;
+    }
+
+    @Nonnull
+    @Override
+    public String nextId() {
+        return encode(nextLong());
+    }
+
+    /**
+     * @return 新的数值ID
+     */
+    public long nextLong() {
+        long last;
+        long next;
+        do {
+            last = state.get();
+            val now = (clock.millis() - EPOCH) << SEQUENCE_BITS;
+            // state = 时间戳 << 12 | 序号
+            next = now > last ? now : last + 1;
+        }
+        while (!state.compareAndSet(last, next));
+
+        val timestamp = next >>> SEQUENCE_BITS;
+        val sequence = next & ((1L << SEQUENCE_BITS) - 1);
+        return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | node | sequence;
+    }
+
+    @Nonnull
+    static String encode(long id) {
+        val chars = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = DIGITS[(int) (id % 36)];
+            id /= 36;
+        }
+        return new String(chars);
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.id;
+
+import jakarta.annotation.Nonnull;
+import lombok.val;
+
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.util.Random;
+
+/**
+ * 按时间递增的邮件ID生成器(ULID).
+ * <p>
+ * ID由48位毫秒时间戳和80位随机数组成，编码为26位定长的Crockford Base32字符串，字典序与生成时间一致. 不需要配置节点号:
+ * 不同节点在同一毫秒内生成相同ID的概率可以忽略. 同一毫秒内或时钟回拨时随机数部分加一，保证单个节点内严格递增.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public class UlidMailIdGenerator implements MailIdGenerator {
+
+    private static final int LENGTH = 26;
+
+    private static final char[] DIGITS = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private final Clock clock;
+
+    private final Random random;
+
+    private long timestamp = -1;
+
+    /**
+     * 随机数的高16位.
+     */
+    private long high;
+
+    /**
+     * 随机数的低64位.
+     */
+    private long low;
+
+    public UlidMailIdGenerator() {
+        this(Clock.systemUTC(), new SecureRandom());
+    }
+
+    UlidMailIdGenerator(@Nonnull Clock clock, @Nonnull Random random) {
+        this.clock = clock;
+        this.random = random;
+    }
+
+    @Nonnull
+    @Override
+    public synchronized String nextId() {
+        val now = clock.millis();
+        if (now > timestamp) {
+            timestamp = now;
+            high = random.nextInt(1 << 16);
+            low = random.nextLong();
+        }
+        else if (++low == 0) {
+            high = (high + 1) & 0xFFFF;
+            if (high == 0) {
+                // 随机数用尽时借用下一毫秒
+                timestamp++;
+            }
+        }
+        return encode(timestamp, high, low);
+    }
+
+    @Nonnull
+    static String encode(long timestamp, long high, long low) {
+        val chars = new char[LENGTH];
+        // 随机数: 16个字符，每个5位
+        for (int i = LENGTH - 1; i >= 10; i--) {
+            chars[i] = DIGITS[(int) (low & 31)];
+            low = (low >>> 5) | ((high & 31) << 59);
+            high >>>= 5;
+        }
+        // 时间戳: 10个字符
+        for (int i = 9; i >= 0; i--) {
+            chars[i] = DIGITS[(int) (timestamp & 31)];
+            timestamp >>>= 5;
+        }
+        return new String(chars);
+    }
+
+}
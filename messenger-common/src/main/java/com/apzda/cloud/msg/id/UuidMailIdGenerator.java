@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.id;
+
+import jakarta.annotation.Nonnull;
+
+import java.util.UUID;
+
+/**
+ * 使用随机UUID作为邮件ID. ID不按时间递增，仅在显式指定时使用.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public class UuidMailIdGenerator implements MailIdGenerator {
+
+    @Nonnull
+    @Override
+    public String nextId() {
+        return UUID.randomUUID().toString();
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.scheduler;
+
+import jakarta.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 自适应轮询器.
+ * <p>
+ * 没有任务时轮询间隔从{@code minInterval}开始成倍增加，直到{@code maxInterval};
+ * 一旦轮询到任务，立即恢复到{@code minInterval}; 调用{@link #signal()}时立即轮询.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public class AdaptivePoller {
+
+    private final ScheduledExecutorService scheduler;
+
+    private final BooleanSupplier task;
+
+    private final long minInterval;
+
+    private final long maxInterval;
+
+    private final AtomicBoolean signalled = new AtomicBoolean();
+
+    private volatile long interval;
+
+    private ScheduledFuture<?> next;
+
+    private boolean stopped;
+
+    /**
+     * @param scheduler 执行轮询的线程池
+     * @param task 轮询任务，返回是否处理了任务
+     * @param minInterval 最小轮询间隔(毫秒)
+     * @param maxInterval 最大轮询间隔(毫秒)
+     */
+    public AdaptivePoller(@Nonnull ScheduledExecutorService scheduler, @Nonnull BooleanSupplier task, long minInterval,
+            long maxInterval) {
+        if (minInterval < 1) {
+            throw new IllegalArgumentException("minInterval must be greater than 0");
+        }
+        this.scheduler = scheduler;
+        this.task = task;
+        this.minInterval = minInterval;
+        this.maxInterval = Math.max(minInterval, maxInterval);
+        this.interval = minInterval;
+    }
+
+    /**
+     * 开始轮询.
+     * @param initialDelay 首次轮询的延迟(毫秒)
+     */
+    public synchronized void start(long initialDelay) {
+        stopped = false;
+        schedule(Math.max(0, initialDelay));
+    }
+
+    /**
+     * 有新任务，立即轮询. 即使轮询间隔已是最小间隔(如最小与最大间隔相等时)也不等待下次轮询; 正在轮询时，本次轮询结束后立即再轮询一次. 连续的多次信号只触发一次轮询.
+     */
+    public void signal() {
+        if (signalled.getAndSet(true)) {
+            return;
+        }
+        synchronized (this) {
+            interval = minInterval;
+            if (next != null && next.getDelay(TimeUnit.MILLISECONDS) > 0 && next.cancel(false)) {
+                schedule(0);
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        if (next != null) {
+            next.cancel(false);
+        }
+    }
+
+    /**
+     * @return 当前轮询间隔(毫秒)
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    private void poll() {
+        signalled.set(false);
+        boolean busy = false;
+        try {
+            busy = task.getAsBoolean();
+        }
+        catch (Exception e) {
+            log.warn("Poll failed: {}", e.getMessage());
+        }
+
+        synchronized (this) {
+            if (signalled.get()) {
+                // 轮询期间有新任务
+                interval = minInterval;
+                schedule(0);
+                return;
+            }
+            interval = busy ? minInterval : Math.min(maxInterval, interval * 2);
+            schedule(interval);
+        }
+    }
+
+    private void schedule(long delay) {
+        if (stopped || scheduler.isShutdown()) {
+            return;
+        }
+        try {
+            next = scheduler.schedule(this::poll, delay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            stopped = true;
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.scheduler;
+
+import jakarta.annotation.Nonnull;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分层时间轮.
+ * <p>
+ * 每个键最多登记一个到期时间，重新登记会覆盖之前的到期时间. 时间轮不自己走动，由调用者定时调用 {@link #advance(long)} 取出已到期的键.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public class TimingWheel<K> {
+
+    private final int wheelSize;
+
+    private final Map<K, Long> dueTimes = new HashMap<>();
+
+    private final List<Entry<K>> expired = new ArrayList<>();
+
+    private final Level root;
+
+    /**
+     * @param tickMs 最底层每格的时长(毫秒)
+     * @param wheelSize 每层的格数
+     * @param startMs 起始时间(毫秒)
+     */
+    public TimingWheel(long tickMs, int wheelSize, long startMs) {
+        if (tickMs < 1) {
+            throw new IllegalArgumentException("tickMs must be greater than 0");
+        }
+        if (wheelSize < 2) {
+            throw new IllegalArgumentException("wheelSize must be greater than 1");
+        }
+        this.wheelSize = wheelSize;
+        this.root = new Level(tickMs, startMs);
+    }
+
+    /**
+     * 登记(或重新登记)一个键的到期时间.
+     * @param key 键
+     * @param dueAt 到期时间(毫秒)
+     */
+    public synchronized void schedule(@Nonnull K key, long dueAt) {
+        val previous = dueTimes.put(key, dueAt);
+        if (previous != null && previous == dueAt) {
+            return;
+        }
+        val entry = new Entry<>(key, dueAt);
+        if (!root.add(entry)) {
+            expired.add(entry);
+        }
+    }
+
+    /**
+     * 取消一个键.
+     * @param key 键
+     * @return 键是否已登记
+     */
+    public synchronized boolean cancel(@Nonnull K key) {
+        return dueTimes.remove(key) != null;
+    }
+
+    public synchronized boolean contains(@Nonnull K key) {
+        return dueTimes.containsKey(key);
+    }
+
+    public synchronized int size() {
+        return dueTimes.size();
+    }
+
+    /**
+     * 将时间轮推进到指定时间.
+     * @param now 当前时间(毫秒)
+     * @return 已到期的键
+     */
+    @Nonnull
+    public synchronized List<K> advance(long now) {
+        val drained = new ArrayList<Entry<K>>(expired);
+        expired.clear();
+        root.advance(now, drained);
+
+        val fired = new ArrayList<K>();
+        for (Entry<K> entry : drained) {
+            // 已取消或已重新登记的条目直接丢弃
+            val dueAt = dueTimes.get(entry.key);
+            if (dueAt == null || dueAt != entry.dueAt || root.add(entry)) {
+                continue;
+            }
+            // 放不进时间轮的条目最多还差一格，到点后再触发
+            if (entry.dueAt > now) {
+                expired.add(entry);
+            }
+            else {
+                dueTimes.remove(entry.key);
+                fired.add(entry.key);
+            }
+        }
+
+        return fired;
+    }
+
+    private record Entry<K>(K key, long dueAt) {
+    }
+
+    private final class Level {
+
+        private final long tick;
+
+        private final long interval;
+
+        private final List<LinkedList<Entry<K>>> buckets;
+
+        private long currentTime;
+
+        private Level overflow;
+
+        Level(long tick, long startMs) {
+            this.tick = tick;
+            this.interval = tick * wheelSize;
+            this.currentTime = startMs - (startMs % tick);
+            this.buckets = new ArrayList<>(wheelSize);
+            for (int i = 0; i < wheelSize; i++) {
+                buckets.add(new LinkedList<>());
+            }
+        }
+
+        boolean add(Entry<K> entry) {
+            if (entry.dueAt < currentTime + tick) {
+                return false;
+            }
+            if (entry.dueAt < currentTime + interval) {
+                buckets.get((int) ((entry.dueAt / tick) % wheelSize)).add(entry);
+                return true;
+            }
+            if (overflow == null) {
+                overflow = new Level(interval, currentTime);
+            }
+            return overflow.add(entry);
+        }
+
+        void advance(long now, List<Entry<K>> drained) {
+            if (now >= currentTime + tick) {
+                val target = now - (now % tick);
+                val ticks = (target - currentTime) / tick;
+                if (ticks >= wheelSize) {
+                    for (LinkedList<Entry<K>> bucket : buckets) {
+                        drained.addAll(bucket);
+                        bucket.clear();
+                    }
+                }
+                else {
+                    for (long i = 1; i <= ticks; i++) {
+                        val bucket = buckets.get((int) (((currentTime / tick) + i) % wheelSize));
+                        drained.addAll(bucket);
+                        bucket.clear();
+                    }
+                }
+                currentTime = target;
+            }
+            if (overflow != null) {
+                overflow.advance(now, drained);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.apzda.cloud.msg.codec;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class ContentCodecsTest {
+
+    private static final String CONTENT = "{\"title\":\"你好\",\"content\":\"" + "hello messenger ".repeat(512) + "\"}";
+
+    @ParameterizedTest
+    @ValueSource(strings = { "gzip", "zstd", "lz4", "GZIP" })
+    void content_should_survive_a_round_trip(String name) {
+        // given
+        val codec = ContentCodecs.get(name);
+        val data = CONTENT.getBytes(StandardCharsets.UTF_8);
+
+        // when
+        val encoded = codec.encode(data);
+        val decoded = ContentCodecs.decode(name, encoded);
+
+        // then
+        assertThat(codec.getName()).isEqualToIgnoringCase(name);
+        assertThat(encoded.length).isLessThan(data.length);
+        assertThat(decoded).isEqualTo(CONTENT);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "gzip", "zstd", "lz4" })
+    void empty_content_should_survive_a_round_trip(String name) {
+        // given
+        val codec = ContentCodecs.get(name);
+
+        // when
+        val decoded = codec.decode(codec.encode(new byte[0]));
+
+        // then
+        assertThat(decoded).isEmpty();
+    }
+
+    @Test
+    void none_should_not_encode() {
+        // given
+        val data = CONTENT.getBytes(StandardCharsets.UTF_8);
+
+        // then
+        assertThat(ContentCodecs.get(null)).isNull();
+        assertThat(ContentCodecs.get(ContentCodecs.NONE)).isNull();
+        assertThat(ContentCodecs.decode(ContentCodecs.NONE, data)).isEqualTo(CONTENT);
+        assertThat(ContentCodecs.decode("gzip", null)).isNull();
+    }
+
+    @Test
+    void legacy_content_should_be_read_as_is() {
+        // given
+        val payload = ContentCodecs.get("gzip").encode(CONTENT.getBytes(StandardCharsets.UTF_8));
+
+        // then: 启用编码前写入的邮件没有编解码器，内容在content中
+        assertThat(ContentCodecs.decode(null, null, CONTENT)).isEqualTo(CONTENT);
+        assertThat(ContentCodecs.decode("", null, CONTENT)).isEqualTo(CONTENT);
+        assertThat(ContentCodecs.decode("gzip", payload, null)).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void unknown_codec_should_be_rejected_on_decode() {
+        // given
+        val payload = ContentCodecs.get("gzip").encode(CONTENT.getBytes(StandardCharsets.UTF_8));
+
+        // then
+        assertThatThrownBy(() -> ContentCodecs.decode("brotli", payload)).isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("brotli");
+    }
+
+    @Test
+    void none_should_not_be_registered() {
+        assertThatThrownBy(() -> ContentCodecs.register(new GzipContentCodec() {
+            @Override
+            public String getName() {
+                return ContentCodecs.NONE;
+            }
+        })).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
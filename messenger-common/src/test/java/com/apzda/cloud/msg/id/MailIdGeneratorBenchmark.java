@@ -0,0 +1,56 @@
+package com.apzda.cloud.msg.id;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比随机UUID与{@link SnowflakeMailIdGenerator}生成邮件ID的吞吐量.
+ * <p>
+ * 运行: 在IDE中执行{@link #main(String[])}.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MailIdGeneratorBenchmark {
+
+    private final SnowflakeMailIdGenerator generator = new SnowflakeMailIdGenerator(1);
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String uuid() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String snowflake() {
+        return generator.nextId();
+    }
+
+    @Benchmark
+    public String uuidSingleThread() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    public String snowflakeSingleThread() {
+        return generator.nextId();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MailIdGeneratorBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.apzda.cloud.msg.id;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class UlidMailIdGeneratorTest {
+
+    private final AtomicLong now = new AtomicLong(1704067200000L);
+
+    private final Clock clock = new Clock() {
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(now.get());
+        }
+    };
+
+    @Test
+    void ids_should_be_increasing_within_and_across_millis() {
+        // given
+        val generator = new UlidMailIdGenerator(clock, new Random(1));
+
+        // when
+        val ids = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            ids.add(generator.nextId());
+        }
+        now.incrementAndGet();
+        ids.add(generator.nextId());
+        // 时钟回拨
+        now.addAndGet(-10);
+        ids.add(generator.nextId());
+
+        // then
+        assertThat(ids).allMatch(id -> id.length() == 26).doesNotHaveDuplicates().isSorted();
+    }
+
+    @Test
+    void timestamp_should_be_encoded_in_the_prefix() {
+        // when
+        val id = UlidMailIdGenerator.encode(1469918176385L, 0, 0);
+        val max = UlidMailIdGenerator.encode((1L << 48) - 1, 0xFFFF, -1L);
+
+        // then
+        assertThat(id).isEqualTo("01ARYZ6S41" + "0".repeat(16));
+        assertThat(max).isEqualTo("7ZZZZZZZZZZZZZZZZZZZZZZZZZ");
+    }
+
+    @Test
+    void random_part_overflow_should_borrow_the_next_milli() {
+        // given: 随机数已是最大值
+        val generator = new UlidMailIdGenerator(clock, new Random() {
+            @Override
+            public int nextInt(int bound) {
+                return bound - 1;
+            }
+
+            @Override
+            public long nextLong() {
+                return -1L;
+            }
+        });
+
+        // when
+        val first = generator.nextId();
+        val second = generator.nextId();
+
+        // then
+        assertThat(second).isGreaterThan(first);
+        assertThat(second.substring(0, 10)).isEqualTo(UlidMailIdGenerator.encode(now.get() + 1, 0, 0).substring(0, 10));
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.apzda.cloud.msg.scheduler;
+
+import lombok.val;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class AdaptivePollerTest {
+
+    private ScheduledExecutorService scheduler;
+
+    private ScheduledFuture<?> future;
+
+    private final AtomicBoolean busy = new AtomicBoolean();
+
+    private AdaptivePoller poller;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = mock(ScheduledExecutorService.class);
+        future = mock(ScheduledFuture.class);
+        doReturn(future).when(scheduler).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+        poller = new AdaptivePoller(scheduler, busy::get, 100, 1000);
+    }
+
+    @Test
+    void interval_should_double_when_idle_up_to_max() {
+        // given
+        poller.start(0);
+
+        // when
+        val intervals = new long[5];
+        for (int i = 0; i < intervals.length; i++) {
+            runNext();
+            intervals[i] = poller.getInterval();
+        }
+
+        // then
+        assertThat(intervals).containsExactly(200, 400, 800, 1000, 1000);
+        assertThat(lastDelay()).isEqualTo(1000);
+    }
+
+    @Test
+    void interval_should_reset_when_work_is_found() {
+        // given
+        poller.start(0);
+        runNext();
+        runNext();
+        assertThat(poller.getInterval()).isEqualTo(400);
+
+        // when
+        busy.set(true);
+        runNext();
+
+        // then
+        assertThat(poller.getInterval()).isEqualTo(100);
+        assertThat(lastDelay()).isEqualTo(100);
+    }
+
+    @Test
+    void signal_should_reset_interval_and_poll_immediately() {
+        // given
+        poller.start(0);
+        runNext();
+        runNext();
+        when(future.getDelay(TimeUnit.MILLISECONDS)).thenReturn(400L);
+        when(future.cancel(false)).thenReturn(true);
+
+        // when
+        poller.signal();
+
+        // then
+        assertThat(poller.getInterval()).isEqualTo(100);
+        verify(future).cancel(false);
+        assertThat(lastDelay()).isZero();
+    }
+
+    @Test
+    void signal_should_poll_immediately_when_interval_is_fixed() {
+        // given: 有时间轮时最小与最大间隔相等
+        poller = new AdaptivePoller(scheduler, busy::get, 1000, 1000);
+        poller.start(0);
+        runNext();
+        assertThat(lastDelay()).isEqualTo(1000);
+        when(future.getDelay(TimeUnit.MILLISECONDS)).thenReturn(1000L);
+        when(future.cancel(false)).thenReturn(true);
+
+        // when
+        poller.signal();
+        poller.signal();
+
+        // then
+        assertThat(poller.getInterval()).isEqualTo(1000);
+        verify(future).cancel(false);
+        assertThat(lastDelay()).isZero();
+    }
+
+    @Test
+    void signal_during_poll_should_poll_again_immediately() {
+        // given
+        poller = new AdaptivePoller(scheduler, () -> {
+            poller.signal();
+            return false;
+        }, 1000, 1000);
+        poller.start(0);
+        when(future.getDelay(TimeUnit.MILLISECONDS)).thenReturn(0L);
+
+        // when
+        runNext();
+
+        // then
+        verify(future, never()).cancel(false);
+        assertThat(lastDelay()).isZero();
+    }
+
+    @Test
+    void stopped_poller_should_not_reschedule() {
+        // given
+        poller.start(0);
+        val poll = lastTask();
+
+        // when
+        poller.stop();
+        poll.run();
+
+        // then
+        verify(future, atLeastOnce()).cancel(false);
+        assertThat(lastTask()).isSameAs(poll);
+    }
+
+    private void runNext() {
+        lastTask().run();
+    }
+
+    private Runnable lastTask() {
+        val captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, atLeastOnce()).schedule(captor.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        return captor.getValue();
+    }
+
+    private long lastDelay() {
+        val captor = ArgumentCaptor.forClass(Long.class);
+        verify(scheduler, atLeastOnce()).schedule(any(Runnable.class), captor.capture(), eq(TimeUnit.MILLISECONDS));
+        return captor.getValue();
+    }
+
+}
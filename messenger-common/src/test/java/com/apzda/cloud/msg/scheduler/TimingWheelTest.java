@@ -0,0 +1,128 @@
+package com.apzda.cloud.msg.scheduler;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class TimingWheelTest {
+
+    @Test
+    void keys_should_fire_when_due() {
+        // given
+        val wheel = new TimingWheel<Long>(10, 8, 0);
+        wheel.schedule(1L, 25);
+        wheel.schedule(2L, 55);
+
+        // when
+        val early = wheel.advance(19);
+        val first = wheel.advance(30);
+        val second = wheel.advance(60);
+
+        // then
+        assertThat(early).isEmpty();
+        assertThat(first).containsExactly(1L);
+        assertThat(second).containsExactly(2L);
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void keys_should_cascade_across_levels() {
+        // given: 每层8格，第一层80ms，第二层640ms，第三层5120ms
+        val wheel = new TimingWheel<Long>(10, 8, 0);
+        wheel.schedule(1L, 150);
+        wheel.schedule(2L, 1000);
+        wheel.schedule(3L, 6000);
+
+        // when
+        val beforeFirst = wheel.advance(140);
+        val first = wheel.advance(150);
+        val beforeSecond = wheel.advance(990);
+        val second = wheel.advance(1000);
+        val beforeThird = wheel.advance(5990);
+        val third = wheel.advance(6005);
+
+        // then
+        assertThat(beforeFirst).isEmpty();
+        assertThat(first).containsExactly(1L);
+        assertThat(beforeSecond).isEmpty();
+        assertThat(second).containsExactly(2L);
+        assertThat(beforeThird).isEmpty();
+        assertThat(third).containsExactly(3L);
+    }
+
+    @Test
+    void keys_should_fire_after_a_long_pause() {
+        // given
+        val wheel = new TimingWheel<Long>(10, 8, 0);
+        wheel.schedule(1L, 35);
+        wheel.schedule(2L, 700);
+        wheel.schedule(3L, 10000);
+
+        // when
+        val fired = wheel.advance(5000);
+
+        // then
+        assertThat(fired).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(wheel.contains(3L)).isTrue();
+        assertThat(wheel.advance(10000)).containsExactly(3L);
+    }
+
+    @Test
+    void expired_keys_should_fire_on_next_advance() {
+        // given
+        val wheel = new TimingWheel<Long>(10, 8, 100);
+
+        // when
+        wheel.schedule(1L, 50);
+        wheel.schedule(2L, 105);
+
+        // then
+        assertThat(wheel.size()).isEqualTo(2);
+        assertThat(wheel.advance(100)).containsExactly(1L);
+        assertThat(wheel.advance(105)).containsExactly(2L);
+    }
+
+    @Test
+    void cancelled_keys_should_not_fire() {
+        // given
+        val wheel = new TimingWheel<Long>(10, 8, 0);
+        wheel.schedule(1L, 30);
+        wheel.schedule(2L, 30);
+        wheel.schedule(3L, 500);
+
+        // when
+        val cancelled = wheel.cancel(1L);
+        val cancelledOverflow = wheel.cancel(3L);
+
+        // then
+        assertThat(cancelled).isTrue();
+        assertThat(cancelledOverflow).isTrue();
+        assertThat(wheel.cancel(1L)).isFalse();
+        assertThat(wheel.advance(30)).containsExactly(2L);
+        assertThat(wheel.advance(1000)).isEmpty();
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void rescheduled_keys_should_fire_only_at_new_time() {
+        // given
+        val wheel = new TimingWheel<Long>(10, 8, 0);
+        wheel.schedule(1L, 30);
+
+        // when
+        wheel.schedule(1L, 300);
+
+        // then
+        assertThat(wheel.size()).isEqualTo(1);
+        assertThat(wheel.advance(100)).isEmpty();
+        assertThat(wheel.advance(300)).containsExactly(1L);
+        assertThat(wheel.advance(1000)).isEmpty();
+    }
+
+}
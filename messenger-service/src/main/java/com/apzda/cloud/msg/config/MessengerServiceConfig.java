@@ -19,11 +19,19 @@ package com.apzda.cloud.msg.config;
 import com.apzda.cloud.msg.Postman;
 import com.apzda.cloud.msg.RocketMail;
 import com.apzda.cloud.msg.TextMail;
+import com.apzda.cloud.msg.consumer.MailboxConsumer;
+import com.apzda.cloud.msg.mq.AbstractRateLimiter;
 import com.apzda.cloud.msg.mq.FixedRateLimiter;
 import com.apzda.cloud.msg.mq.RocketMqRateLimiter;
 import com.apzda.cloud.msg.postman.DemoPostman;
+import com.apzda.cloud.msg.postman.PostmanRegistry;
 import com.apzda.cloud.msg.postman.RocketMqPostman;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
@@ -50,16 +58,58 @@ public class MessengerServiceConfig {
         return new DemoPostman();
     }
 
+    @Bean
+    PostmanRegistry postmanRegistry(ObjectProvider<Postman<?, ?>> postmanProvider) {
+        return new PostmanRegistry(postmanProvider);
+    }
+
     @Bean
     @ConditionalOnMissingBean
     RocketMqRateLimiter rocketMqRateLimiter(RocketMQTemplate rocketMQTemplate, MessengerServiceProperties properties) {
-        return new FixedRateLimiter(rocketMQTemplate, properties.getLimitRetry());
+        return new FixedRateLimiter(rocketMQTemplate, properties);
     }
 
     @Bean
     @ConditionalOnMissingBean(name = "rocketmqPostman")
-    Postman<String, RocketMail> rocketmqPostman(RocketMqRateLimiter rocketMqRateLimiter) {
-        return new RocketMqPostman(rocketMqRateLimiter);
+    Postman<String, RocketMail> rocketmqPostman(RocketMqRateLimiter rocketMqRateLimiter,
+            MessengerServiceProperties properties) {
+        return new RocketMqPostman(rocketMqRateLimiter, properties.getForward());
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    static class PostmanMetricsConfiguration {
+
+        @Bean
+        MeterBinder postmanMeterBinder(ObjectProvider<MailboxConsumer> consumer, PostmanRegistry postmanRegistry,
+                ObjectProvider<RocketMqRateLimiter> rateLimiter) {
+            return registry -> {
+                consumer.ifAvailable(mailboxConsumer -> Gauge
+                    .builder("apzda.postman.poll.interval", mailboxConsumer, MailboxConsumer::getPollInterval)
+                    .description("Current poll interval of the mailbox")
+                    .baseUnit("milliseconds")
+                    .register(registry));
+                FunctionCounter.builder("apzda.postman.unknown", postmanRegistry, PostmanRegistry::getUnknownCount)
+                    .description("Postman names that cannot be resolved")
+                    .register(registry);
+                rateLimiter.ifAvailable(limiter -> {
+                    if (limiter instanceof AbstractRateLimiter abstractRateLimiter) {
+                        FunctionCounter
+                            .builder("apzda.postman.rate.limited", abstractRateLimiter,
+                                    AbstractRateLimiter::getLimitedCount)
+                            .description("Deliveries deferred by the rate limiter")
+                            .register(registry);
+                        FunctionCounter
+                            .builder("apzda.postman.rate.wait", abstractRateLimiter,
+                                    AbstractRateLimiter::getLimitedWait)
+                            .description("Total time deliveries were deferred by the rate limiter")
+                            .baseUnit("milliseconds")
+                            .register(registry);
+                    }
+                });
+            };
+        }
+
     }
 
 }
@@ -16,11 +16,17 @@
  */
 package com.apzda.cloud.msg.config;
 
+import com.apzda.cloud.msg.domain.vo.ClaimStrategy;
+import jakarta.annotation.Nonnull;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.PatternMatchUtils;
 
 import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -51,20 +57,197 @@ public class MessengerServiceProperties {
 
     private int clientApiTimeout = 3 * 1000;
 
+    /**
+     * 每次消费的最大消息数，大于1时整批落库.
+     */
+    private int consumeMessageBatchMaxSize = 1;
+
     private int executorCount = 1;
 
+    private int batchSize = 100;
+
+    private ClaimStrategy claimStrategy = ClaimStrategy.UPDATE;
+
     private Duration delay = Duration.ofSeconds(30);
 
     private Duration period = Duration.ofSeconds(1);
 
+    private Duration maxPeriod = Duration.ofSeconds(30);
+
+    private Duration wheelTick = Duration.ofMillis(100);
+
+    private int wheelSize = 512;
+
+    /**
+     * 时间轮中最多登记的邮件数，小于1(默认)时不使用时间轮，只按period~maxPeriod轮询数据库. 设置为正数(如100000)后启用时间轮.
+     */
+    private int wheelCapacity = 0;
+
+    private Duration reconcilePeriod = Duration.ofMinutes(1);
+
+    /**
+     * 认领的租期，租期内未完成的邮件由清扫任务退回重试.
+     */
+    private Duration leaseTime = Duration.ofMinutes(5);
+
+    private Duration sweepPeriod = Duration.ofMinutes(1);
+
+    private int sweepBatchSize = 1000;
+
+    /**
+     * 每个邮递员独立的投递线程池，threads小于1(默认)时在消费(轮询)线程中直接投递. 设置threads(如4)后启用投递线程池.
+     */
+    private Bulkhead delivery = new Bulkhead();
+
+    /**
+     * 按邮递员名称覆盖投递线程池的配置，也可以只为个别邮递员开启投递线程池.
+     */
+    private Map<String, Bulkhead> bulkheads = new HashMap<>();
+
+    /**
+     * 支持批量投递的邮递员按邮递员与收件人分组攒批投递，maxSize小于2(默认)时逐一投递. 设置maxSize(如100)后启用攒批.
+     */
+    private Batch batch = new Batch();
+
+    /**
+     * 投递结果的组提交，batchSize小于2(默认)时每个结果单独提交. 设置batchSize(如100)后启用组提交.
+     */
+    private Outcome outcome = new Outcome();
+
+    /**
+     * RocketMQ邮递员转发消息的配置.
+     */
+    private Forward forward = new Forward();
+
     private int limitRetry = 5;
 
+    /**
+     * 每个目的地(topic:tag)每秒允许投递的消息数，小于1时不限速.
+     */
     private int limitRate = -1;
 
+    /**
+     * 大于0时按该窗口从Redis批量租借令牌并在本地发放，窗口结束时归还未用完的令牌.
+     */
+    private Duration limitLeaseWindow = Duration.ZERO;
+
+    /**
+     * 按目的地模式(支持*通配符，如{@code [ORDER_TOPIC:*]})覆盖限速配置，按配置顺序匹配.
+     */
+    private Map<String, RateLimit> rateLimits = new LinkedHashMap<>();
+
     private List<Duration> retries = List.of(Duration.ofSeconds(10), Duration.ofSeconds(30), Duration.ofMinutes(1),
             Duration.ofMinutes(2), Duration.ofMinutes(3), Duration.ofMinutes(4), Duration.ofMinutes(5),
             Duration.ofMinutes(6), Duration.ofMinutes(7), Duration.ofMinutes(8), Duration.ofMinutes(9),
             Duration.ofMinutes(10), Duration.ofMinutes(20), Duration.ofMinutes(30), Duration.ofHours(1),
             Duration.ofHours(2));
 
+    @Nonnull
+    public Bulkhead getBulkhead(@Nonnull String postman) {
+        return bulkheads.getOrDefault(postman, delivery);
+    }
+
+    /**
+     * @param destination 目的地(topic:tag)
+     * @return 目的地的限速配置
+     */
+    @Nonnull
+    public RateLimit getRateLimit(String destination) {
+        for (Map.Entry<String, RateLimit> entry : rateLimits.entrySet()) {
+            if (PatternMatchUtils.simpleMatch(entry.getKey(), destination)) {
+                return entry.getValue();
+            }
+        }
+        RateLimit limit = new RateLimit();
+        limit.setRate(limitRate);
+        return limit;
+    }
+
+    @Data
+    public static class Outcome {
+
+        private int batchSize = 0;
+
+        private Duration flushInterval = Duration.ofMillis(5);
+
+        private int queueSize = 10000;
+
+        /**
+         * 队列满时最多等待的时间，超时后在调用线程中直接写入.
+         */
+        private Duration offerTimeout = Duration.ofMillis(100);
+
+    }
+
+    @Data
+    public static class Bulkhead {
+
+        private int threads = 0;
+
+        private int queueSize = 1000;
+
+        /**
+         * 队列满时提交者最多等待的时间，超时后邮件立即交给重试(登记到时间轮或唤醒轮询).
+         */
+        private Duration offerTimeout = Duration.ofSeconds(3);
+
+    }
+
+    @Data
+    public static class Batch {
+
+        /**
+         * 每批最多投递的邮件数.
+         */
+        private int maxSize = 0;
+
+        /**
+         * 最长攒批时间，超时后不足一批也投递.
+         */
+        private Duration linger = Duration.ofMillis(5);
+
+    }
+
+    @Data
+    public static class RateLimit {
+
+        /**
+         * 每个周期允许投递的消息数，小于1时不限速.
+         */
+        private int rate = -1;
+
+        private Duration period = Duration.ofSeconds(1);
+
+        /**
+         * 允许的突发消息数，小于1时为rate.
+         */
+        private int burst = 0;
+
+    }
+
+    @Data
+    public static class Forward {
+
+        /**
+         * 异步发送，在发送回调中记录投递结果. 默认false(同步发送)，设置为true后开启.
+         */
+        private boolean async = false;
+
+        /**
+         * 将同一目的地的邮件合并为RocketMQ批量消息发送，攒批配置见batch. 默认false，设置为true并配置batch.maxSize后开启.
+         */
+        private boolean batch = false;
+
+        /**
+         * 每个目的地最多同时在途的消息数.
+         */
+        private int maxInFlight = 1000;
+
+        /**
+         * 在途窗口已满时推迟投递的时间. 投递线程不等待窗口，放不下的邮件在该时间之后再试.
+         */
+        private Duration acquireTimeout = Duration.ofSeconds(3);
+
+    }
+
 }
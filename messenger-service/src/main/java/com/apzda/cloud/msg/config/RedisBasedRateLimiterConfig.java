@@ -16,7 +16,8 @@
  */
 package com.apzda.cloud.msg.config;
 
-import com.apzda.cloud.msg.mq.RedisBasedRateLimiter;
+import com.apzda.cloud.msg.mq.RedisGcraRateLimiter;
+import com.apzda.cloud.msg.mq.RedisLeasedRateLimiter;
 import com.apzda.cloud.msg.mq.RocketMqRateLimiter;
 import org.apache.rocketmq.spring.core.RocketMQTemplate;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
@@ -36,8 +37,10 @@ class RedisBasedRateLimiterConfig {
     @Bean
     RocketMqRateLimiter rocketMqRateLimiter(RocketMQTemplate rocketMQTemplate, StringRedisTemplate stringRedisTemplate,
             MessengerServiceProperties properties) {
-        return new RedisBasedRateLimiter(rocketMQTemplate, stringRedisTemplate, properties.getLimitRate(),
-                properties.getLimitRetry());
+        if (properties.getLimitLeaseWindow().toMillis() > 0) {
+            return new RedisLeasedRateLimiter(rocketMQTemplate, stringRedisTemplate, properties);
+        }
+        return new RedisGcraRateLimiter(rocketMQTemplate, stringRedisTemplate, properties);
     }
 
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.consumer;
+
+import com.apzda.cloud.msg.domain.entity.Mailbox;
+import jakarta.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * 投递攒批器: 按邮递员与收件人分组攒批，攒够一批或超过最长攒批时间后交给批量投递.
+ * <p>
+ * 攒够一批时在提交线程中交出，超时的批次在调度线程中交出.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+class DeliveryBatcher {
+
+    private final ScheduledExecutorService scheduler;
+
+    private final BiConsumer<String, List<Mailbox>> flusher;
+
+    private final int maxSize;
+
+    private final long linger;
+
+    private final Map<Key, List<Mailbox>> pending = new HashMap<>();
+
+    /**
+     * @param scheduler 执行超时批次的调度器
+     * @param flusher 批量投递(邮递员, 邮件)
+     * @param maxSize 每批最多的邮件数
+     * @param linger 最长攒批时间(毫秒)
+     */
+    DeliveryBatcher(ScheduledExecutorService scheduler, BiConsumer<String, List<Mailbox>> flusher, int maxSize,
+            long linger) {
+        this.scheduler = scheduler;
+        this.flusher = flusher;
+        this.maxSize = Math.max(1, maxSize);
+        this.linger = Math.max(0, linger);
+    }
+
+    void add(@Nonnull Mailbox mailbox) {
+        val key = new Key(mailbox.getPostman(), Objects.toString(mailbox.getRecipients(), ""));
+        List<Mailbox> full = null;
+        synchronized (pending) {
+            var batch = pending.get(key);
+            boolean scheduled = true;
+            if (batch == null) {
+                batch = new ArrayList<>(maxSize);
+                pending.put(key, batch);
+                scheduled = maxSize > 1 && schedule(key, batch);
+            }
+            batch.add(mailbox);
+            // 调度器已关闭时不再攒批
+            if (batch.size() >= maxSize || !scheduled) {
+                pending.remove(key);
+                full = batch;
+            }
+        }
+        if (full != null) {
+            flusher.accept(key.postman(), full);
+        }
+    }
+
+    /**
+     * 交出所有未满的批次.
+     */
+    void flush() {
+        final Map<Key, List<Mailbox>> batches;
+        synchronized (pending) {
+            batches = new HashMap<>(pending);
+            pending.clear();
+        }
+        batches.forEach((key, batch) -> flusher.accept(key.postman(), batch));
+    }
+
+    private boolean schedule(Key key, List<Mailbox> batch) {
+        try {
+            scheduler.schedule(() -> expire(key, batch), linger, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void expire(Key key, List<Mailbox> batch) {
+        synchronized (pending) {
+            // 已攒满交出或已被flush交出
+            if (pending.get(key) != batch) {
+                return;
+            }
+            pending.remove(key);
+        }
+        try {
+            flusher.accept(key.postman(), batch);
+        }
+        catch (Exception e) {
+            log.warn("Cannot deliver batch of postman({}): count({}) - {}", key.postman(), batch.size(),
+                    e.getMessage());
+        }
+    }
+
+    private record Key(String postman, String recipients) {
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.consumer;
+
+import com.apzda.cloud.msg.config.MessengerServiceProperties;
+import jakarta.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 投递阶段: 每个邮递员一个有界线程池(舱壁)，慢的邮递员不会占满消费线程而拖慢其它邮递员.
+ * <p>
+ * 队列满时提交者阻塞等待，对消费与重试轮询形成背压.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+class DeliveryStage {
+
+    private final MessengerServiceProperties properties;
+
+    private final Map<String, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+
+    DeliveryStage(MessengerServiceProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * 提交投递任务.
+     * @param postman 邮递员名称
+     * @param task 投递任务
+     * @return 队列已满且等待超时或已关闭时返回false
+     */
+    boolean submit(@Nonnull String postman, @Nonnull Runnable task) throws InterruptedException {
+        val bulkhead = properties.getBulkhead(postman);
+        val executor = executors.computeIfAbsent(postman, name -> create(name, bulkhead));
+        try {
+            executor.execute(task);
+            return true;
+        }
+        catch (RejectedExecutionException e) {
+            if (e.getCause() instanceof InterruptedException ie) {
+                throw ie;
+            }
+            return false;
+        }
+    }
+
+    void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        executors.values().forEach(ThreadPoolExecutor::shutdown);
+        val deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Map.Entry<String, ThreadPoolExecutor> entry : executors.entrySet()) {
+            val left = deadline - System.nanoTime();
+            if (!entry.getValue().awaitTermination(Math.max(0, left), TimeUnit.NANOSECONDS)) {
+                log.warn("Shutdown delivery executor of postman({}) timeout, {} mails left", entry.getKey(),
+                        entry.getValue().getQueue().size());
+            }
+        }
+    }
+
+    private ThreadPoolExecutor create(String postman, MessengerServiceProperties.Bulkhead bulkhead) {
+        val counter = new AtomicInteger(0);
+        val threads = bulkhead.getThreads();
+        val executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, bulkhead.getQueueSize())), r -> {
+                    val thread = new Thread(r);
+                    thread.setName("postman-" + postman + "-" + counter.getAndAdd(1));
+                    thread.setDaemon(true);
+                    return thread;
+                }, new BlockingPolicy(bulkhead.getOfferTimeout().toMillis()));
+        executor.prestartAllCoreThreads();
+        log.info("Delivery executor of postman({}) init: threads={}, queueSize={}", postman, threads,
+                bulkhead.getQueueSize());
+        return executor;
+    }
+
+    /**
+     * 队列满时阻塞提交者，最多等待timeout毫秒.
+     */
+    private record BlockingPolicy(long timeout) implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Delivery executor is shutdown");
+            }
+            try {
+                if (!executor.getQueue().offer(task, timeout, TimeUnit.MILLISECONDS)) {
+                    throw new RejectedExecutionException("Delivery queue is full");
+                }
+            }
+            catch (InterruptedException e) {
+                throw new RejectedExecutionException(e);
+            }
+            // 入队时可能恰好关闭，此时已没有线程执行队列中的任务
+            if (executor.isShutdown() && executor.getQueue().remove(task)) {
+                throw new RejectedExecutionException("Delivery executor is shutdown");
+            }
+        }
+
+    }
+
+}
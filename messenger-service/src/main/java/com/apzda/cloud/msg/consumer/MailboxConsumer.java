@@ -17,11 +17,19 @@
 package com.apzda.cloud.msg.consumer;
 
 import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.util.RandomUtil;
+import com.apzda.cloud.msg.DeliveryDeferredException;
+import com.apzda.cloud.msg.DeliveryResult;
+import com.apzda.cloud.msg.IMail;
 import com.apzda.cloud.msg.Postman;
+import com.apzda.cloud.msg.codec.ContentCodecs;
 import com.apzda.cloud.msg.config.MessengerServiceProperties;
 import com.apzda.cloud.msg.domain.entity.Mailbox;
 import com.apzda.cloud.msg.domain.service.IMailboxService;
 import com.apzda.cloud.msg.domain.vo.MailStatus;
+import com.apzda.cloud.msg.postman.PostmanRegistry;
+import com.apzda.cloud.msg.scheduler.AdaptivePoller;
+import com.apzda.cloud.msg.scheduler.TimingWheel;
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
@@ -29,19 +37,29 @@ import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
 import org.apache.rocketmq.spring.core.RocketMQListener;
 import org.apache.rocketmq.spring.core.RocketMQPushConsumerLifecycleListener;
-import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 import java.nio.charset.StandardCharsets;
 import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -54,7 +72,7 @@ import java.util.concurrent.atomic.AtomicInteger;
         consumerGroup = "${apzda.cloud.postman.group:MAILBOX_CONSUMER}")
 @RequiredArgsConstructor
 @ConditionalOnProperty(prefix = "apzda.cloud.postman", name = "enabled", havingValue = "true", matchIfMissing = true)
-public class MailboxConsumer implements RocketMQListener<MessageExt>, RocketMQPushConsumerLifecycleListener, Runnable {
+public class MailboxConsumer implements RocketMQListener<MessageExt>, RocketMQPushConsumerLifecycleListener {
 
     private final MessengerServiceProperties properties;
 
@@ -62,12 +80,26 @@ public class MailboxConsumer implements RocketMQListener<MessageExt>, RocketMQPu
 
     private final Clock clock;
 
-    private final ObjectProvider<Postman<?, ?>> postmanProvider;
+    private final PostmanRegistry postmanRegistry;
 
     private final AtomicInteger atomicInteger = new AtomicInteger(0);
 
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    private final String instanceId = RandomUtil.randomString(16);
+
+    private final List<AdaptivePoller> pollers = new CopyOnWriteArrayList<>();
+
     private ScheduledThreadPoolExecutor executor;
 
+    private DeliveryStage deliveryStage;
+
+    private DeliveryBatcher batcher;
+
+    private TimingWheel<Long> wheel;
+
+    private ScheduledExecutorService timer;
+
     @Override
     public void prepareStart(@Nonnull DefaultMQPushConsumer consumer) {
         val namespace = properties.getNamespace();
@@ -83,8 +115,21 @@ public class MailboxConsumer implements RocketMQListener<MessageExt>, RocketMQPu
         consumer.setConsumeTimeout(properties.getConsumeTimeout());
         consumer.setMqClientApiTimeout(properties.getClientApiTimeout());
 
-        log.info("a consumer used by Messenger ({}) init on namesrv {}", consumer.getConsumerGroup(),
-                consumer.getNamesrvAddr());
+        val batchSize = properties.getConsumeMessageBatchMaxSize();
+        if (batchSize > 1) {
+            // 替换rocketmq-spring注册的单条消费监听器
+            consumer.setConsumeMessageBatchMaxSize(batchSize);
+            consumer.registerMessageListener((MessageListenerConcurrently) this::onMessages);
+        }
+
+        log.info("a consumer used by Messenger ({}) init on namesrv {}, batchSize={}", consumer.getConsumerGroup(),
+                consumer.getNamesrvAddr(), Math.max(1, batchSize));
+
+        // 可以只为个别邮递员开启投递线程池
+        if (properties.getDelivery().getThreads() > 0
+                || properties.getBulkheads().values().stream().anyMatch(bulkhead -> bulkhead.getThreads() > 0)) {
+            deliveryStage = new DeliveryStage(properties);
+        }
 
         val executorCount = properties.getExecutorCount();
         executor = new ScheduledThreadPoolExecutor(
@@ -95,34 +140,146 @@ public class MailboxConsumer implements RocketMQListener<MessageExt>, RocketMQPu
                     return thread;
                 });
 
-        val delay = properties.getDelay().toSeconds();
-        val period = properties.getPeriod().toSeconds();
+        val batch = properties.getBatch();
+        if (batch.getMaxSize() > 1) {
+            // 超时的批次由投递执行器交出，不占用时间轮线程
+            batcher = new DeliveryBatcher(executor, this::dispatchBatch, batch.getMaxSize(),
+                    batch.getLinger().toMillis());
+            log.info("Postman batcher init: maxSize={}, linger={}", batch.getMaxSize(), batch.getLinger());
+        }
+
+        if (properties.getWheelCapacity() > 0) {
+            // 重试时间登记在时间轮中，到期后按ID批量认领，不再逐条轮询数据库
+            val tick = Math.max(1, properties.getWheelTick().toMillis());
+            val reconcilePeriod = Math.max(tick, properties.getReconcilePeriod().toMillis());
+            wheel = new TimingWheel<>(tick, properties.getWheelSize(), clock.millis());
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                val thread = new Thread(r);
+                thread.setName("postman-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.scheduleAtFixedRate(this::fireDue, tick, tick, TimeUnit.MILLISECONDS);
+            timer.scheduleAtFixedRate(this::loadScheduled, 0, reconcilePeriod, TimeUnit.MILLISECONDS);
+            log.info("Postman timing wheel init: tick={}ms, size={}, capacity={}, reconcilePeriod={}ms", tick,
+                    properties.getWheelSize(), properties.getWheelCapacity(), reconcilePeriod);
+        }
+
+        val delay = properties.getDelay().toMillis();
+        // 有时间轮时轮询只用于低频对账
+        val minPeriod = Math.max(1000,
+                wheel != null ? properties.getReconcilePeriod().toMillis() : properties.getPeriod().toMillis());
+        val maxPeriod = wheel != null ? minPeriod : properties.getMaxPeriod().toMillis();
         for (int i = 0; i < executorCount; i++) {
-            executor.scheduleAtFixedRate(this, delay > 0 ? delay : 10, period > 0 ? period : 1, TimeUnit.SECONDS);
+            val poller = new AdaptivePoller(executor, this::poll, minPeriod, maxPeriod);
+            pollers.add(poller);
+            poller.start(delay > 0 ? delay : 10000);
         }
-        log.info("Postman executor init: count={}, delay={}, period={} ", executorCount, delay, period);
+        log.info("Postman executor init: count={}, delay={}ms, period={}ms~{}ms", executorCount, delay, minPeriod,
+                maxPeriod);
+
+        // 投递者宕机后遗留在SENDING状态的邮件在租期过后交给重试
+        val sweepPeriod = Math.max(1000, properties.getSweepPeriod().toMillis());
+        executor.scheduleWithFixedDelay(this::sweep, sweepPeriod, sweepPeriod, TimeUnit.MILLISECONDS);
+        log.info("Postman sweeper init: leaseTime={}, period={}ms", properties.getLeaseTime(), sweepPeriod);
+    }
+
+    /**
+     * @return 最活跃的轮询线程当前的轮询间隔(毫秒)
+     */
+    public long getPollInterval() {
+        return pollers.stream().mapToLong(AdaptivePoller::getInterval).min().orElse(0);
     }
 
     @Override
     public void onMessage(MessageExt message) {
+        val mailbox = toMailbox(message);
+        mailbox.setClaimToken(instanceId + "-" + sequence.incrementAndGet());
+        // 保存失败时抛出异常，利用RocketMQ的重试机制
+        if (!mailboxService.saveIfAbsent(mailbox)) {
+            log.trace("忽略已存在的消息: postman({}) - msgId({})", mailbox.getPostman(), mailbox.getMsgId());
+            return;
+        }
+        // 有新邮件，重试随时可能到期
+        pollers.forEach(AdaptivePoller::signal);
+        // 立即投递
+        dispatch(mailbox);
+    }
+
+    /**
+     * 批量消费: 整批去重、落库后再逐一投递. 整批落库失败时逐条落库，从第一条落库失败的消息起稍后重新消费.
+     * @param messages 消息
+     * @param context 消费上下文
+     * @return 消费状态
+     */
+    ConsumeConcurrentlyStatus onMessages(@Nonnull List<MessageExt> messages,
+            @Nonnull ConsumeConcurrentlyContext context) {
+        val mailboxes = new ArrayList<Mailbox>(messages.size());
+        for (MessageExt message : messages) {
+            mailboxes.add(toMailbox(message));
+        }
+
+        List<Mailbox> saved;
+        try {
+            saved = mailboxService.saveAllIfAbsent(mailboxes, instanceId + "-" + sequence.incrementAndGet());
+        }
+        catch (Exception e) {
+            log.warn("Cannot save mails into mailbox: count({}) - {}", mailboxes.size(),
+                    ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(e)));
+            saved = new ArrayList<>(mailboxes.size());
+            for (int i = 0; i < mailboxes.size(); i++) {
+                val mailbox = mailboxes.get(i);
+                mailbox.setClaimToken(instanceId + "-" + sequence.incrementAndGet());
+                try {
+                    if (mailboxService.saveIfAbsent(mailbox)) {
+                        saved.add(mailbox);
+                    }
+                }
+                catch (Exception ex) {
+                    log.warn("Cannot save mail into mailbox: postman({}) - msgId({}) - {}", mailbox.getPostman(),
+                            mailbox.getMsgId(), ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(ex)));
+                    // 已落库的消息确认消费，其余消息稍后重新消费
+                    context.setAckIndex(i - 1);
+                    break;
+                }
+            }
+        }
+
+        if (saved.size() < mailboxes.size()) {
+            log.trace("忽略已存在或未落库的消息: {}", mailboxes.size() - saved.size());
+        }
+        if (!saved.isEmpty()) {
+            pollers.forEach(AdaptivePoller::signal);
+        }
+        // 已落库的邮件投递失败时由重试兜底，不需要重新消费
+        for (Mailbox mailbox : saved) {
+            dispatch(mailbox);
+        }
+        return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+    }
+
+    @Nonnull
+    private Mailbox toMailbox(@Nonnull MessageExt message) {
         val tags = message.getTags();
-        val content = new String(message.getBody(), StandardCharsets.UTF_8);
+        val codec = message.getUserProperty(ContentCodecs.PROPERTY);
+        // 编码过的内容原样落库，投递时再解码
+        val content = StringUtils.isBlank(codec) ? new String(message.getBody(), StandardCharsets.UTF_8) : null;
         val msgId = message.getUserProperty("msgId");
         val service = message.getUserProperty("service");
         val title = message.getUserProperty("title");
         val recipients = message.getUserProperty("recipients");
         val postTime = message.getUserProperty("postTime");
 
-        log.debug("收到消息: postman({}) - msgId({}) - content({})", tags, msgId, StringUtils.truncate(content, 128));
+        log.debug("收到消息: postman({}) - msgId({}) - codec({}) - content({})", tags, msgId, codec,
+                StringUtils.truncate(content, 128));
 
-        Mailbox mailbox = mailboxService.getByPostmanAndMsgId(tags, msgId);
-        if (mailbox != null) {
-            log.trace("忽略已存在的消息: {}", mailbox);
-            return;
-        }
         // 落库，以便可以重试
-        mailbox = new Mailbox();
+        val mailbox = new Mailbox();
         mailbox.setContent(content);
+        if (content == null) {
+            mailbox.setCodec(codec);
+            mailbox.setPayload(message.getBody());
+        }
         mailbox.setTitle(title);
         mailbox.setService(service);
         mailbox.setMsgId(msgId);
@@ -137,29 +294,105 @@ public class MailboxConsumer implements RocketMQListener<MessageExt>, RocketMQPu
         catch (Exception ignored) {
             mailbox.setPostTime(mailbox.getNextRetryAt());
         }
+        return mailbox;
+    }
 
-        if (!mailboxService.save(mailbox)) {
-            // 利用RocketMQ的重试机制
-            throw new RuntimeException("Cannot save mail into mailbox: " + mailbox);
+    /**
+     * 认领并投递到期需重试的邮件.
+     * @return 是否认领到了邮件
+     */
+    boolean poll() {
+        val batchSize = Math.max(1, properties.getBatchSize());
+        val strategy = properties.getClaimStrategy();
+        boolean claimed = false;
+        List<Mailbox> mailboxes;
+        do {
+            mailboxes = mailboxService.claim(strategy, MailStatus.RETRYING, batchSize, clock.millis(),
+                    instanceId + "-" + sequence.incrementAndGet());
+            for (Mailbox mailbox : mailboxes) {
+                dispatch(mailbox);
+            }
+            claimed |= !mailboxes.isEmpty();
         }
-        // 立即投递
-        deliver(mailbox);
+        while (mailboxes.size() >= batchSize);
+        return claimed;
     }
 
-    @Override
-    public void run() {
-        Mailbox mailbox;
-        do {
-            mailbox = mailboxService.getByStatusAndNextRetryAtLe(MailStatus.RETRYING, clock.millis());
-            if (mailbox != null) {
-                mailbox.setStatus(MailStatus.SENDING);
-                if (!mailboxService.updateStatus(mailbox, MailStatus.RETRYING)) {
-                    continue;
-                }
-                deliver(mailbox);
+    private boolean reschedule(Long id, long nextRetryAt) {
+        if (wheel != null && wheel.size() < properties.getWheelCapacity()) {
+            wheel.schedule(id, nextRetryAt);
+            return true;
+        }
+        return false;
+    }
+
+    private void fireDue() {
+        try {
+            val ids = wheel.advance(clock.millis());
+            val batchSize = Math.max(1, properties.getBatchSize());
+            // 认领与投递交给轮询线程，时间轮线程只负责走动
+            for (int i = 0; i < ids.size(); i += batchSize) {
+                val batch = new ArrayList<>(ids.subList(i, Math.min(i + batchSize, ids.size())));
+                executor.execute(() -> fire(batch));
+            }
+        }
+        catch (Exception e) {
+            log.warn("Cannot fire due mails: {}", e.getMessage());
+        }
+    }
+
+    private void fire(List<Long> ids) {
+        try {
+            // 没认领到的邮件已被其它实例处理或被推迟
+            val mailboxes = mailboxService.claimByIds(ids, clock.millis(),
+                    instanceId + "-" + sequence.incrementAndGet());
+            for (Mailbox mailbox : mailboxes) {
+                dispatch(mailbox);
             }
         }
-        while (mailbox != null);
+        catch (Exception e) {
+            // 未投递的邮件由轮询兜底
+            log.warn("Cannot claim due mails: {} - {}", ids, e.getMessage());
+        }
+    }
+
+    private void loadScheduled() {
+        try {
+            val limit = properties.getWheelCapacity() - wheel.size();
+            if (limit <= 0) {
+                return;
+            }
+            val now = clock.millis();
+            // 多加载一个对账周期，避免两次加载之间出现空档
+            val to = now + 2 * properties.getReconcilePeriod().toMillis();
+            for (Mailbox mailbox : mailboxService.listScheduled(now, to, limit)) {
+                wheel.schedule(mailbox.getId(), mailbox.getNextRetryAt());
+            }
+        }
+        catch (Exception e) {
+            log.warn("Cannot load scheduled mails: {}", e.getMessage());
+        }
+    }
+
+    private void sweep() {
+        try {
+            val limit = Math.max(1, properties.getSweepBatchSize());
+            int released = 0;
+            int count;
+            do {
+                count = mailboxService.releaseExpired(clock.millis(), limit);
+                released += count;
+            }
+            while (count >= limit);
+
+            if (released > 0) {
+                log.warn("Released {} mails whose lease has expired", released);
+                pollers.forEach(AdaptivePoller::signal);
+            }
+        }
+        catch (Exception e) {
+            log.warn("Cannot release expired mails: {}", e.getMessage());
+        }
     }
 
     @PreDestroy
@@ -167,6 +400,13 @@ public class MailboxConsumer implements RocketMQListener<MessageExt>, RocketMQPu
         if (executor == null) {
             return;
         }
+        pollers.forEach(AdaptivePoller::stop);
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        if (batcher != null) {
+            batcher.flush();
+        }
 
         try {
             executor.shutdown();
@@ -180,60 +420,229 @@ public class MailboxConsumer implements RocketMQListener<MessageExt>, RocketMQPu
         catch (Exception e) {
             log.warn("Cannot shutdown Postman executor: {}", e.getMessage());
         }
+
+        if (deliveryStage != null) {
+            try {
+                deliveryStage.shutdown(30, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
-    @SuppressWarnings({ "unchecked", "rawtypes" })
-    private void deliver(@Nonnull Mailbox mailbox) {
+    private void dispatch(@Nonnull Mailbox mailbox) {
         val tags = mailbox.getPostman();
-        val msgId = mailbox.getMsgId();
-        val service = mailbox.getService();
-        val title = mailbox.getTitle();
+        val postman = postmanRegistry.get(tags);
+        // 找不到邮递员的邮件直接标记失败，不为其创建线程池
+        if (postman == null) {
+            markFailure(mailbox, "postman(" + tags + ") not found.");
+            return;
+        }
+        if (batcher != null && postman.supportsBatch()) {
+            batcher.add(mailbox);
+            return;
+        }
+        if (deliveryStage == null || properties.getBulkhead(tags).getThreads() < 1) {
+            deliver(mailbox);
+            return;
+        }
 
         try {
-            val postmanOpt = postmanProvider.stream().filter(pm -> pm.supports(tags)).findFirst();
-            if (postmanOpt.isEmpty()) {
-                try {
-                    mailboxService.markFailure(mailbox, "postman(" + tags + ") not found.");
-                }
-                catch (Exception ie) {
-                    log.warn("Cannot update mailbox status to fail: postman({}) - msgId({}) - {}", tags, msgId,
-                            ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(ie)));
-                }
+            if (deliveryStage.submit(tags, () -> deliver(mailbox))) {
                 return;
             }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        requeue(mailbox);
+    }
 
-            val postman = (Postman) postmanOpt.get();
-            val content = mailbox.getContent();
-            val mail = postman.encapsulate(msgId, tags, content);
+    private void dispatchBatch(@Nonnull String tags, @Nonnull List<Mailbox> mailboxes) {
+        if (deliveryStage == null || properties.getBulkhead(tags).getThreads() < 1) {
+            deliverBatch(tags, mailboxes);
+            return;
+        }
 
-            mail.setPostman(tags);
-            mail.setService(service);
-            mail.setTitle(title);
-            mail.setId(msgId);
-            mail.setRecipients(mailbox.getRecipients());
+        try {
+            if (deliveryStage.submit(tags, () -> deliverBatch(tags, mailboxes))) {
+                return;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mailboxes.forEach(this::requeue);
+    }
 
-            if (postman.deliver(mail)) {
-                mailboxService.markSuccess(mailbox);
+    private void requeue(@Nonnull Mailbox mailbox) {
+        // 投递队列已满，交给重试: 立即登记到时间轮或唤醒轮询，不等到下次对账
+        val now = clock.millis();
+        try {
+            if (mailboxService.postpone(mailbox, now) && !reschedule(mailbox.getId(), now)) {
+                pollers.forEach(AdaptivePoller::signal);
             }
-            else {
-                try {
-                    mailboxService.markFailure(mailbox, "postman(" + tags + ") cannot deliver it.");
-                }
-                catch (Exception e) {
-                    log.warn("Cannot mark mailbox status fail: postman({}) - msgId({}) - {}", tags, msgId,
-                            ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(e)));
-                }
+            log.debug("Delivery queue is full, mail will be retried: postman({}) - msgId({})", mailbox.getPostman(),
+                    mailbox.getMsgId());
+        }
+        catch (Exception e) {
+            log.warn("Cannot postpone mail: postman({}) - msgId({}) - {}", mailbox.getPostman(), mailbox.getMsgId(),
+                    ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(e)));
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void deliver(@Nonnull Mailbox mailbox) {
+        try {
+            val found = postmanRegistry.get(mailbox.getPostman());
+            if (found == null) {
+                markFailure(mailbox, "postman(" + mailbox.getPostman() + ") not found.");
+                return;
             }
+
+            val postman = (Postman) found;
+            // 在投递完成时记录投递结果，异步的邮递员不会阻塞投递线程
+            CompletionStage<DeliveryResult> stage = postman.deliverAsync(encapsulate(postman, mailbox));
+            stage.whenComplete((result, e) -> onDelivered(mailbox, e == null ? result : DeliveryResult.of(e)));
+        }
+        catch (DeliveryDeferredException e) {
+            defer(mailbox, e.getRetryAfter());
         }
         catch (Exception e) {
+            markFailure(mailbox, ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(e)));
+        }
+    }
+
+    /**
+     * 批量投递同一邮递员、同一收件人的邮件.
+     * @param tags 邮递员名称
+     * @param mailboxes 邮件
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void deliverBatch(@Nonnull String tags, @Nonnull List<Mailbox> mailboxes) {
+        val found = postmanRegistry.get(tags);
+        if (found == null) {
+            mailboxes.forEach(mailbox -> markFailure(mailbox, "postman(" + tags + ") not found."));
+            return;
+        }
+
+        val postman = (Postman) found;
+        val accepted = new ArrayList<Mailbox>(mailboxes.size());
+        val mails = new ArrayList<IMail<?>>(mailboxes.size());
+        for (Mailbox mailbox : mailboxes) {
             try {
-                mailboxService.markFailure(mailbox, ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(e)));
+                mails.add(encapsulate(postman, mailbox));
+                accepted.add(mailbox);
             }
-            catch (Exception ie) {
-                log.warn("Cannot update mailbox status: postman({}) - msgId({}) - {}", tags, msgId,
-                        ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(ie)));
+            catch (Exception e) {
+                // 不能解码的邮件单独失败，不影响同批的其它邮件
+                markFailure(mailbox, ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(e)));
             }
         }
+        if (accepted.isEmpty()) {
+            return;
+        }
+
+        try {
+            CompletionStage<List<DeliveryResult>> stage = postman.deliverBatch(mails);
+            stage.whenComplete((results, e) -> {
+                for (int i = 0; i < accepted.size(); i++) {
+                    // 整批异常结束时每封邮件的结果相同，缺少结果的邮件按临时失败处理
+                    if (e != null) {
+                        onDelivered(accepted.get(i), DeliveryResult.of(e));
+                    }
+                    else {
+                        onDelivered(accepted.get(i), results != null && i < results.size() ? results.get(i) : null);
+                    }
+                }
+            });
+        }
+        catch (Exception e) {
+            val result = DeliveryResult.of(e);
+            accepted.forEach(mailbox -> onDelivered(mailbox, result));
+        }
+    }
+
+    @Nonnull
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private IMail<?> encapsulate(@Nonnull Postman postman, @Nonnull Mailbox mailbox) {
+        val tags = mailbox.getPostman();
+        val msgId = mailbox.getMsgId();
+        val content = ContentCodecs.decode(mailbox.getCodec(), mailbox.getPayload(), mailbox.getContent());
+        final IMail<?> mail = postman.encapsulate(msgId, tags, content);
+
+        mail.setPostman(tags);
+        mail.setService(mailbox.getService());
+        mail.setTitle(mailbox.getTitle());
+        mail.setId(msgId);
+        mail.setRecipients(mailbox.getRecipients());
+        return mail;
+    }
+
+    private void onDelivered(@Nonnull Mailbox mailbox, DeliveryResult result) {
+        if (result == null) {
+            markFailure(mailbox, "postman(" + mailbox.getPostman() + ") cannot deliver it.");
+            return;
+        }
+        switch (result.status()) {
+            case DELIVERED -> markSuccess(mailbox);
+            case DEFERRED -> defer(mailbox, result.retryAfter());
+            default -> {
+                val reason = StringUtils.isBlank(result.reason())
+                        ? "postman(" + mailbox.getPostman() + ") cannot deliver it." : result.reason();
+                // 永久失败不再重试
+                markFailure(mailbox, reason, result.status() == DeliveryResult.Status.TRANSIENT_FAILURE);
+            }
+        }
+    }
+
+    private void markSuccess(@Nonnull Mailbox mailbox) {
+        // 投递结果合并提交，不阻塞投递线程
+        mailboxService.markSuccessAsync(mailbox).whenComplete((v, e) -> {
+            if (e != null) {
+                log.warn("Cannot mark mailbox status success: postman({}) - msgId({}) - {}", mailbox.getPostman(),
+                        mailbox.getMsgId(), ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(e)));
+            }
+        });
+    }
+
+    private void defer(@Nonnull Mailbox mailbox, @Nonnull Duration retryAfter) {
+        // 被限速等暂时不能投递的邮件推迟重试，不阻塞投递线程，也不计入重试次数
+        val nextRetryAt = clock.millis() + Math.max(0, retryAfter.toMillis());
+        try {
+            if (mailboxService.postpone(mailbox, nextRetryAt)) {
+                reschedule(mailbox.getId(), nextRetryAt);
+            }
+            log.debug("Delivery deferred: postman({}) - msgId({}) - retryAfter({})", mailbox.getPostman(),
+                    mailbox.getMsgId(), retryAfter);
+        }
+        catch (Exception e) {
+            log.warn("Cannot postpone mail: postman({}) - msgId({}) - {}", mailbox.getPostman(), mailbox.getMsgId(),
+                    ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(e)));
+        }
+    }
+
+    private void markFailure(@Nonnull Mailbox mailbox, String error) {
+        markFailure(mailbox, error, true);
+    }
+
+    private void markFailure(@Nonnull Mailbox mailbox, String error, boolean retryable) {
+        try {
+            mailboxService.markFailureAsync(mailbox, error, retryable).whenComplete((v, e) -> {
+                if (e != null) {
+                    log.warn("Cannot mark mailbox status fail: postman({}) - msgId({}) - {}", mailbox.getPostman(),
+                            mailbox.getMsgId(), ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(e)));
+                }
+                else if (mailbox.getStatus() == MailStatus.RETRYING) {
+                    reschedule(mailbox.getId(), mailbox.getNextRetryAt());
+                }
+            });
+        }
+        catch (Exception e) {
+            log.warn("Cannot update mailbox status: postman({}) - msgId({}) - {}", mailbox.getPostman(),
+                    mailbox.getMsgId(), ExceptionUtil.getSimpleMessage(ExceptionUtil.getRootCause(e)));
+        }
     }
 
 }
@@ -17,10 +17,17 @@
 package com.apzda.cloud.msg.domain.mapper;
 
 import com.apzda.cloud.msg.domain.entity.Mailbox;
+import com.apzda.cloud.msg.domain.vo.MailStatus;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -36,4 +43,101 @@ public interface MailboxMapper extends BaseMapper<Mailbox> {
     @Select("SELECT * FROM apzda_mailbox WHERE msg_id = #{msgId}")
     Mailbox getByMsgId(@Param("msgId") String msgId);
 
+    @Insert("""
+            INSERT IGNORE INTO apzda_mailbox (created_at, next_retry_at, msg_id, claim_token, lease_expire_at, title,
+            service, status, postman, recipients, post_time, content, codec, payload, retries) VALUES
+            (#{createdAt}, #{nextRetryAt}, #{msgId}, #{claimToken}, #{leaseExpireAt}, #{title},
+            #{service}, #{status}, #{postman}, #{recipients}, #{postTime}, #{content}, #{codec}, #{payload}, #{retries})
+            """)
+    @Options(useGeneratedKeys = true, keyProperty = "id", keyColumn = "id")
+    int insertIfAbsent(Mailbox mailbox);
+
+    @Insert("""
+            <script>
+            INSERT IGNORE INTO apzda_mailbox (created_at, next_retry_at, msg_id, claim_token, lease_expire_at, title,
+            service, status, postman, recipients, post_time, content, codec, payload, retries) VALUES
+            <foreach collection="mails" item="m" separator=",">
+            (#{m.createdAt}, #{m.nextRetryAt}, #{m.msgId}, #{m.claimToken}, #{m.leaseExpireAt}, #{m.title},
+            #{m.service}, #{m.status}, #{m.postman}, #{m.recipients}, #{m.postTime}, #{m.content}, #{m.codec},
+            #{m.payload}, #{m.retries})
+            </foreach>
+            </script>
+            """)
+    int insertAllIfAbsent(@Param("mails") List<Mailbox> mails);
+
+    @Select("""
+            <script>
+            SELECT msg_id, postman FROM apzda_mailbox WHERE msg_id IN
+            <foreach collection="msgIds" item="id" open="(" separator="," close=")">#{id}</foreach>
+            </script>
+            """)
+    List<Mailbox> listKeysByMsgIds(@Param("msgIds") Collection<String> msgIds);
+
+    @Select("SELECT id, msg_id, postman FROM apzda_mailbox WHERE claim_token = #{token}")
+    List<Mailbox> listKeysByClaimToken(@Param("token") String token);
+
+    @Update("""
+            UPDATE apzda_mailbox SET status = #{to}, claim_token = #{token}, lease_expire_at = #{lease},
+            updated_at = #{now} WHERE status = #{from} AND next_retry_at <= #{now} ORDER BY next_retry_at
+            LIMIT #{limit}
+            """)
+    int claim(@Param("from") MailStatus from, @Param("to") MailStatus to, @Param("token") String token,
+            @Param("now") long now, @Param("lease") long lease, @Param("limit") int limit);
+
+    @Select("""
+            SELECT id FROM apzda_mailbox WHERE status = #{status} AND next_retry_at <= #{now}
+            ORDER BY next_retry_at LIMIT #{limit} FOR UPDATE SKIP LOCKED
+            """)
+    List<Long> lockDueIds(@Param("status") MailStatus status, @Param("now") long now, @Param("limit") int limit);
+
+    @Update("""
+            <script>
+            UPDATE apzda_mailbox SET status = #{to}, claim_token = #{token}, lease_expire_at = #{lease},
+            updated_at = #{now} WHERE status = #{from} AND id IN
+            <foreach collection="ids" item="id" open="(" separator="," close=")">#{id}</foreach>
+            </script>
+            """)
+    int claimByIds(@Param("ids") Collection<Long> ids, @Param("from") MailStatus from, @Param("to") MailStatus to,
+            @Param("token") String token, @Param("now") long now, @Param("lease") long lease);
+
+    @Update("""
+            <script>
+            UPDATE apzda_mailbox SET status = #{to}, claim_token = #{token}, lease_expire_at = #{lease},
+            updated_at = #{now} WHERE status = #{from} AND next_retry_at &lt;= #{now} AND id IN
+            <foreach collection="ids" item="id" open="(" separator="," close=")">#{id}</foreach>
+            </script>
+            """)
+    int claimDueByIds(@Param("ids") Collection<Long> ids, @Param("from") MailStatus from, @Param("to") MailStatus to,
+            @Param("token") String token, @Param("now") long now, @Param("lease") long lease);
+
+    @Select("""
+            <script>
+            SELECT id, claim_token FROM apzda_mailbox WHERE status = #{status} AND id IN
+            <foreach collection="ids" item="id" open="(" separator="," close=")">#{id}</foreach>
+            FOR UPDATE
+            </script>
+            """)
+    List<Mailbox> lockByIds(@Param("ids") Collection<Long> ids, @Param("status") MailStatus status);
+
+    @Select("""
+            SELECT * FROM apzda_mailbox WHERE claim_token = #{token} AND status = #{status}
+            ORDER BY next_retry_at
+            """)
+    List<Mailbox> listByClaimToken(@Param("token") String token, @Param("status") MailStatus status);
+
+    @Select("""
+            SELECT id, next_retry_at FROM apzda_mailbox WHERE status = #{status}
+            AND next_retry_at > #{from} AND next_retry_at <= #{to} ORDER BY next_retry_at LIMIT #{limit}
+            """)
+    List<Mailbox> listScheduled(@Param("status") MailStatus status, @Param("from") long from, @Param("to") long to,
+            @Param("limit") int limit);
+
+    @Update("""
+            UPDATE apzda_mailbox SET status = #{to}, claim_token = NULL, lease_expire_at = NULL,
+            updated_at = #{now} WHERE status = #{from} AND (lease_expire_at BETWEEN 1 AND #{now}
+            OR lease_expire_at = 0 AND COALESCE(updated_at, created_at, 0) <= #{now} - #{lease}) LIMIT #{limit}
+            """)
+    int releaseExpired(@Param("from") MailStatus from, @Param("to") MailStatus to, @Param("now") long now,
+            @Param("lease") long lease, @Param("limit") int limit);
+
 }
@@ -18,10 +18,16 @@ package com.apzda.cloud.msg.domain.service;
 
 import com.apzda.cloud.msg.domain.entity.Delivery;
 import com.apzda.cloud.msg.domain.entity.Mailbox;
+import com.apzda.cloud.msg.domain.vo.ClaimStrategy;
 import com.apzda.cloud.msg.domain.vo.MailStatus;
 import com.baomidou.mybatisplus.core.conditions.Wrapper;
 import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.service.IService;
+import jakarta.annotation.Nonnull;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -34,12 +40,106 @@ public interface IMailboxService extends IService<Mailbox> {
 
     Mailbox getByMsgId(String msgId);
 
+    /**
+     * 邮件(postman, msgId)不存在时保存.
+     * @param mailbox 邮件
+     * @return 是否为新邮件
+     */
+    boolean saveIfAbsent(@Nonnull Mailbox mailbox);
+
+    /**
+     * 批量保存不存在的邮件: 一次查询去重，一条INSERT落库.
+     * @param mailboxes 邮件
+     * @param token 本批次的令牌，写入claim_token用于取回新邮件的ID
+     * @return 新保存的邮件(已设置ID)
+     */
+    @Nonnull
+    List<Mailbox> saveAllIfAbsent(@Nonnull List<Mailbox> mailboxes, @Nonnull String token);
+
     Mailbox getByStatusAndNextRetryAtLe(MailStatus mailStatus, long nextRetryAt);
 
+    /**
+     * 批量认领到期的邮件.
+     * @param strategy 认领策略
+     * @param mailStatus 待认领邮件的状态
+     * @param limit 最多认领的数量
+     * @param nextRetryAt 到期时间
+     * @param token 认领者令牌
+     * @return 已认领(状态为SENDING)的邮件
+     */
+    @Nonnull
+    List<Mailbox> claim(@Nonnull ClaimStrategy strategy, @Nonnull MailStatus mailStatus, int limit, long nextRetryAt,
+            @Nonnull String token);
+
+    /**
+     * 按ID认领需重试的邮件.
+     * @param ids 邮件ID
+     * @param now 当前时间
+     * @param token 认领者令牌
+     * @return 已认领(状态为SENDING)的邮件
+     */
+    @Nonnull
+    List<Mailbox> claimByIds(@Nonnull Collection<Long> ids, long now, @Nonnull String token);
+
+    /**
+     * 查询将在(from, to]内到期的需重试邮件，仅填充id与nextRetryAt.
+     * @param from 开始时间(不含)
+     * @param to 结束时间
+     * @param limit 最多查询的数量
+     * @return 按到期时间排序的邮件
+     */
+    @Nonnull
+    List<Mailbox> listScheduled(long from, long to, int limit);
+
+    /**
+     * 将租期已过的SENDING邮件退回为RETRYING，不计入重试次数.
+     * <p>
+     * 租期为0的是加入租期前就已在投递中的邮件，按最后更新时间加上租期判断是否过期.
+     * @param now 当前时间
+     * @param limit 最多退回的数量
+     * @return 退回的数量
+     */
+    int releaseExpired(long now, int limit);
+
+    /**
+     * 将未投递的邮件交给重试，不计入重试次数.
+     * @param mailbox 状态为SENDING的邮件
+     * @param nextRetryAt 重试时间
+     * @return 是否成功
+     */
+    boolean postpone(Mailbox mailbox, long nextRetryAt);
+
     void markSuccess(Mailbox mailbox);
 
     void markFailure(Mailbox mailbox, String error);
 
+    /**
+     * 与其它投递结果合并在一个事务中写入.
+     * @param mailbox 邮件
+     * @return 写入完成后完成
+     */
+    @Nonnull
+    CompletableFuture<Void> markSuccessAsync(@Nonnull Mailbox mailbox);
+
+    /**
+     * 与其它投递结果合并在一个事务中写入.
+     * @param mailbox 邮件
+     * @param error 错误信息
+     * @return 写入完成后完成
+     */
+    @Nonnull
+    CompletableFuture<Void> markFailureAsync(@Nonnull Mailbox mailbox, String error);
+
+    /**
+     * 与其它投递结果合并在一个事务中写入.
+     * @param mailbox 邮件
+     * @param error 错误信息
+     * @param retryable 是否可以重试，永久失败的邮件直接标记为FAIL
+     * @return 写入完成后完成
+     */
+    @Nonnull
+    CompletableFuture<Void> markFailureAsync(@Nonnull Mailbox mailbox, String error, boolean retryable);
+
     boolean updateStatus(Mailbox mailbox, MailStatus fromStatus);
 
     boolean resend(Mailbox mailbox);
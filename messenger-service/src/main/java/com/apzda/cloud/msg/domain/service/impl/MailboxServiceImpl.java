@@ -22,17 +22,30 @@ import com.apzda.cloud.msg.domain.entity.Mailbox;
 import com.apzda.cloud.msg.domain.mapper.DeliveryMapper;
 import com.apzda.cloud.msg.domain.mapper.MailboxMapper;
 import com.apzda.cloud.msg.domain.service.IMailboxService;
+import com.apzda.cloud.msg.domain.vo.ClaimStrategy;
 import com.apzda.cloud.msg.domain.vo.MailStatus;
 import com.baomidou.mybatisplus.core.conditions.Wrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -41,7 +54,8 @@ import java.time.Clock;
  **/
 @Service
 @RequiredArgsConstructor
-public class MailboxServiceImpl extends ServiceImpl<MailboxMapper, Mailbox> implements IMailboxService {
+public class MailboxServiceImpl extends ServiceImpl<MailboxMapper, Mailbox>
+        implements IMailboxService, InitializingBean {
 
     private final Clock clock;
 
@@ -53,6 +67,25 @@ public class MailboxServiceImpl extends ServiceImpl<MailboxMapper, Mailbox> impl
 
     private final MessengerServiceProperties properties;
 
+    private OutcomeWriter outcomeWriter;
+
+    @Override
+    public void afterPropertiesSet() {
+        val outcome = properties.getOutcome();
+        if (outcome.getBatchSize() > 1) {
+            outcomeWriter = new OutcomeWriter(transactionTemplate, mailboxMapper, deliveryMapper, this::write,
+                    outcome.getBatchSize(), outcome.getFlushInterval().toMillis(), outcome.getQueueSize(),
+                    outcome.getOfferTimeout().toMillis());
+        }
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (outcomeWriter != null) {
+            outcomeWriter.close(30, TimeUnit.SECONDS);
+        }
+    }
+
     @Override
     public Mailbox getByPostmanAndMsgId(String postman, String msgId) {
         return mailboxMapper.getByPostmanAndMsgId(postman, msgId);
@@ -63,6 +96,79 @@ public class MailboxServiceImpl extends ServiceImpl<MailboxMapper, Mailbox> impl
         return mailboxMapper.getByMsgId(msgId);
     }
 
+    @Override
+    public boolean saveIfAbsent(@Nonnull Mailbox mailbox) {
+        // 自定义SQL不会自动填充
+        if (mailbox.getCreatedAt() == null) {
+            mailbox.setCreatedAt(clock.millis());
+        }
+        lease(mailbox);
+        // 依赖唯一索引UDX_MSG_ID(msg_id, postman)判重
+        return mailboxMapper.insertIfAbsent(mailbox) > 0;
+    }
+
+    @Nonnull
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public List<Mailbox> saveAllIfAbsent(@Nonnull List<Mailbox> mailboxes, @Nonnull String token) {
+        val saved = new ArrayList<Mailbox>(mailboxes.size());
+        // 批内去重
+        val absent = new LinkedHashMap<String, Mailbox>();
+        for (Mailbox mailbox : mailboxes) {
+            if (mailbox.getMsgId() == null) {
+                // 没有ID的邮件无法去重
+                if (saveIfAbsent(mailbox)) {
+                    saved.add(mailbox);
+                }
+                continue;
+            }
+            absent.putIfAbsent(key(mailbox), mailbox);
+        }
+        if (absent.isEmpty()) {
+            return saved;
+        }
+        val msgIds = absent.values().stream().map(Mailbox::getMsgId).distinct().toList();
+        for (Mailbox existing : mailboxMapper.listKeysByMsgIds(msgIds)) {
+            absent.remove(key(existing));
+        }
+        if (absent.isEmpty()) {
+            return saved;
+        }
+
+        val now = clock.millis();
+        for (Mailbox mailbox : absent.values()) {
+            if (mailbox.getCreatedAt() == null) {
+                mailbox.setCreatedAt(now);
+            }
+            mailbox.setClaimToken(token);
+            lease(mailbox);
+        }
+        // 并发插入的重复邮件由唯一索引忽略
+        if (mailboxMapper.insertAllIfAbsent(new ArrayList<>(absent.values())) == 0) {
+            return saved;
+        }
+
+        for (Mailbox inserted : mailboxMapper.listKeysByClaimToken(token)) {
+            val mailbox = absent.get(key(inserted));
+            if (mailbox != null) {
+                mailbox.setId(inserted.getId());
+                saved.add(mailbox);
+            }
+        }
+        return saved;
+    }
+
+    private void lease(Mailbox mailbox) {
+        // 以SENDING状态落库的邮件同样持有租期
+        if (mailbox.getStatus() == MailStatus.SENDING && mailbox.getLeaseExpireAt() == null) {
+            mailbox.setLeaseExpireAt(mailbox.getCreatedAt() + properties.getLeaseTime().toMillis());
+        }
+    }
+
+    private static String key(Mailbox mailbox) {
+        return mailbox.getPostman() + "@" + mailbox.getMsgId();
+    }
+
     @Override
     public Mailbox getByStatusAndNextRetryAtLe(MailStatus mailStatus, long nextRetryAt) {
         val con = Wrappers.lambdaQuery(Mailbox.class);
@@ -74,63 +180,190 @@ public class MailboxServiceImpl extends ServiceImpl<MailboxMapper, Mailbox> impl
         return getOne(con);
     }
 
+    @Nonnull
     @Override
-    public void markSuccess(Mailbox mailbox) {
-        transactionTemplate.execute(status -> {
-            mailbox.setDeliveredAt(clock.millis());
-            mailbox.setStatus(MailStatus.SENT);
-            mailbox.setRemark("");
-            if (updateById(mailbox)) {
-                val deliver = new Delivery();
-                deliver.setDeliveredAt(mailbox.getDeliveredAt());
-                deliver.setMailboxId(mailbox.getId());
-                deliver.setStatus(MailStatus.SENT);
-                deliveryMapper.insert(deliver);
-            }
-            else {
-                status.setRollbackOnly();
-                throw new IllegalStateException("Cannot update mailbox status to SENT: " + mailbox.getMsgId());
+    public List<Mailbox> claim(@Nonnull ClaimStrategy strategy, @Nonnull MailStatus mailStatus, int limit,
+            long nextRetryAt, @Nonnull String token) {
+        if (limit < 1) {
+            return Collections.emptyList();
+        }
+
+        val lease = nextRetryAt + properties.getLeaseTime().toMillis();
+        if (strategy == ClaimStrategy.SKIP_LOCKED) {
+            val claimed = transactionTemplate.execute(status -> {
+                val ids = mailboxMapper.lockDueIds(mailStatus, nextRetryAt, limit);
+                if (ids.isEmpty()) {
+                    return 0;
+                }
+                return mailboxMapper.claimByIds(ids, mailStatus, MailStatus.SENDING, token, nextRetryAt, lease);
+            });
+            if (claimed == null || claimed == 0) {
+                return Collections.emptyList();
             }
-            return true;
-        });
+        }
+        else if (mailboxMapper.claim(mailStatus, MailStatus.SENDING, token, nextRetryAt, lease, limit) == 0) {
+            return Collections.emptyList();
+        }
+
+        return mailboxMapper.listByClaimToken(token, MailStatus.SENDING);
+    }
+
+    @Nonnull
+    @Override
+    public List<Mailbox> claimByIds(@Nonnull Collection<Long> ids, long now, @Nonnull String token) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        val lease = now + properties.getLeaseTime().toMillis();
+        // 重试时间未到(已被推迟)的邮件不认领
+        if (mailboxMapper.claimDueByIds(ids, MailStatus.RETRYING, MailStatus.SENDING, token, now, lease) == 0) {
+            return Collections.emptyList();
+        }
+
+        return mailboxMapper.listByClaimToken(token, MailStatus.SENDING);
+    }
+
+    @Nonnull
+    @Override
+    public List<Mailbox> listScheduled(long from, long to, int limit) {
+        if (limit <= 0 || to <= from) {
+            return Collections.emptyList();
+        }
+
+        return mailboxMapper.listScheduled(MailStatus.RETRYING, from, to, limit);
+    }
+
+    @Override
+    public int releaseExpired(long now, int limit) {
+        if (limit < 1) {
+            return 0;
+        }
+
+        return mailboxMapper.releaseExpired(MailStatus.SENDING, MailStatus.RETRYING, now,
+                properties.getLeaseTime().toMillis(), limit);
     }
 
     @Override
+    public boolean postpone(Mailbox mailbox, long nextRetryAt) {
+        mailbox.setStatus(MailStatus.RETRYING);
+        mailbox.setNextRetryAt(nextRetryAt);
+
+        val con = Wrappers.lambdaUpdate(Mailbox.class);
+        con.eq(Mailbox::getStatus, MailStatus.SENDING);
+        con.eq(Mailbox::getId, mailbox.getId());
+        // 租期过后邮件可能已被退回或被其它认领者持有
+        con.eq(mailbox.getClaimToken() != null, Mailbox::getClaimToken, mailbox.getClaimToken());
 
+        return update(mailbox, con);
+    }
+
+    @Override
+    public void markSuccess(Mailbox mailbox) {
+        write(mailbox, succeeded(mailbox));
+    }
+
+    @Override
     public void markFailure(Mailbox mailbox, String error) {
-        transactionTemplate.execute(status -> {
-            mailbox.setDeliveredAt(clock.millis());
-            mailbox.setRemark(error);
-            // retries
-            val retries = properties.getRetries();
-            val currentRetry = mailbox.getRetries();
-            if (retries.size() >= currentRetry + 1) {
-                val duration = retries.get(currentRetry);
-                mailbox.setRetries(currentRetry + 1);
-                mailbox.setNextRetryAt(mailbox.getDeliveredAt() + duration.toMillis());
-                mailbox.setStatus(MailStatus.RETRYING);
-            }
-            else {
-                mailbox.setStatus(MailStatus.FAIL);
-            }
+        write(mailbox, failed(mailbox, error, true));
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<Void> markSuccessAsync(@Nonnull Mailbox mailbox) {
+        val delivery = succeeded(mailbox);
+        return outcomeWriter != null ? outcomeWriter.write(mailbox, delivery) : writeNow(mailbox, delivery);
+    }
 
-            if (updateById(mailbox)) {
-                val deliver = new Delivery();
-                deliver.setDeliveredAt(mailbox.getDeliveredAt());
-                deliver.setMailboxId(mailbox.getId());
-                deliver.setStatus(MailStatus.FAIL);
-                deliver.setRetries(currentRetry);
-                deliver.setRemark(error);
+    @Nonnull
+    @Override
+    public CompletableFuture<Void> markFailureAsync(@Nonnull Mailbox mailbox, String error) {
+        return markFailureAsync(mailbox, error, true);
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<Void> markFailureAsync(@Nonnull Mailbox mailbox, String error, boolean retryable) {
+        val delivery = failed(mailbox, error, retryable);
+        return outcomeWriter != null ? outcomeWriter.write(mailbox, delivery) : writeNow(mailbox, delivery);
+    }
+
+    @Nonnull
+    private Delivery succeeded(Mailbox mailbox) {
+        mailbox.setDeliveredAt(clock.millis());
+        mailbox.setStatus(MailStatus.SENT);
+        mailbox.setRemark("");
+
+        val deliver = new Delivery();
+        deliver.setDeliveredAt(mailbox.getDeliveredAt());
+        deliver.setMailboxId(mailbox.getId());
+        deliver.setStatus(MailStatus.SENT);
+        return deliver;
+    }
+
+    @Nonnull
+    private Delivery failed(Mailbox mailbox, String error, boolean retryable) {
+        mailbox.setDeliveredAt(clock.millis());
+        mailbox.setRemark(error);
+        // retries
+        val retries = properties.getRetries();
+        val currentRetry = mailbox.getRetries();
+        if (retryable && retries.size() >= currentRetry + 1) {
+            val duration = retries.get(currentRetry);
+            mailbox.setRetries(currentRetry + 1);
+            mailbox.setNextRetryAt(mailbox.getDeliveredAt() + duration.toMillis());
+            mailbox.setStatus(MailStatus.RETRYING);
+        }
+        else {
+            mailbox.setStatus(MailStatus.FAIL);
+        }
+
+        val deliver = new Delivery();
+        deliver.setDeliveredAt(mailbox.getDeliveredAt());
+        deliver.setMailboxId(mailbox.getId());
+        deliver.setStatus(MailStatus.FAIL);
+        deliver.setRetries(currentRetry);
+        deliver.setRemark(error);
+        return deliver;
+    }
+
+    private void write(Mailbox mailbox, Delivery deliver) {
+        transactionTemplate.execute(status -> {
+            if (update(mailbox, claimed(mailbox))) {
                 deliveryMapper.insert(deliver);
             }
             else {
                 status.setRollbackOnly();
-                throw new IllegalStateException("Cannot update mailbox status to FAIL: " + mailbox.getMsgId());
+                throw new IllegalStateException(
+                        "Cannot update mailbox status to " + mailbox.getStatus() + ": " + mailbox.getMsgId());
             }
             return true;
         });
     }
 
+    /**
+     * 只更新仍由本次认领持有的SENDING邮件，租期过后被退回或被其它认领者持有的邮件不会被覆盖.
+     * @param mailbox 邮件
+     * @return 更新条件
+     */
+    @Nonnull
+    static LambdaUpdateWrapper<Mailbox> claimed(@Nonnull Mailbox mailbox) {
+        val con = Wrappers.lambdaUpdate(Mailbox.class);
+        con.eq(Mailbox::getId, mailbox.getId());
+        con.eq(Mailbox::getStatus, MailStatus.SENDING);
+        con.eq(mailbox.getClaimToken() != null, Mailbox::getClaimToken, mailbox.getClaimToken());
+        return con;
+    }
+
+    private CompletableFuture<Void> writeNow(Mailbox mailbox, Delivery deliver) {
+        try {
+            write(mailbox, deliver);
+            return CompletableFuture.completedFuture(null);
+        }
+        catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
     @Override
     public boolean updateStatus(Mailbox mailbox, MailStatus fromStatus) {
         val con = Wrappers.lambdaUpdate(Mailbox.class);
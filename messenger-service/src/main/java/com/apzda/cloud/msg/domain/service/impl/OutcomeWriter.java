@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.domain.service.impl;
+
+import com.apzda.cloud.msg.domain.entity.Delivery;
+import com.apzda.cloud.msg.domain.entity.Mailbox;
+import com.apzda.cloud.msg.domain.mapper.DeliveryMapper;
+import com.apzda.cloud.msg.domain.mapper.MailboxMapper;
+import com.apzda.cloud.msg.domain.vo.MailStatus;
+import com.baomidou.mybatisplus.core.batch.MybatisBatch;
+import com.baomidou.mybatisplus.core.toolkit.MybatisBatchUtils;
+import com.baomidou.mybatisplus.core.toolkit.MybatisUtils;
+import jakarta.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.ibatis.executor.BatchResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * 投递结果的组提交写入器.
+ * <p>
+ * 汇总所有投递线程的状态变更与投递记录，每隔一小段时间或攒够一批后在一个事务中写入. 整批写入失败时逐条重试，只让出错的记录失败.
+ * <p>
+ * 写入前先锁定整批邮件并比对认领令牌，不依赖驱动返回的更新行数.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+class OutcomeWriter implements Runnable {
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final MailboxMapper mailboxMapper;
+
+    private final DeliveryMapper deliveryMapper;
+
+    private final BiConsumer<Mailbox, Delivery> single;
+
+    private final BlockingQueue<Outcome> queue;
+
+    private final int batchSize;
+
+    private final long flushInterval;
+
+    private final long offerTimeout;
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param single 单条写入(独立事务)
+     * @param batchSize 每批最多写入的数量
+     * @param flushInterval 最长攒批时间(毫秒)
+     * @param queueSize 待写入队列的容量
+     * @param offerTimeout 队列满时最多等待的时间(毫秒)，超时后调用者自己单条写入
+     */
+    OutcomeWriter(TransactionTemplate transactionTemplate, MailboxMapper mailboxMapper, DeliveryMapper deliveryMapper,
+            BiConsumer<Mailbox, Delivery> single, int batchSize, long flushInterval, int queueSize, long offerTimeout) {
+        this.transactionTemplate = transactionTemplate;
+        this.mailboxMapper = mailboxMapper;
+        this.deliveryMapper = deliveryMapper;
+        this.single = single;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushInterval));
+        this.offerTimeout = Math.max(0, offerTimeout);
+        this.queue = new LinkedBlockingQueue<>(Math.max(this.batchSize, queueSize));
+        this.thread = new Thread(this, "mailbox-outcome-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 提交投递结果.
+     * @param mailbox 已更新状态的邮件
+     * @param delivery 投递记录
+     * @return 写入完成后完成
+     */
+    @Nonnull
+    CompletableFuture<Void> write(@Nonnull Mailbox mailbox, @Nonnull Delivery delivery) {
+        val outcome = new Outcome(mailbox, delivery, new CompletableFuture<>());
+        try {
+            if (running && queue.offer(outcome, offerTimeout, TimeUnit.MILLISECONDS)) {
+                // 入队时可能恰好关闭，取回者负责写入，否则已由写入线程或close写入
+                if (running || !queue.remove(outcome)) {
+                    return outcome.future();
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 已关闭或队列已满，直接写入
+        writeOne(outcome);
+        return outcome.future();
+    }
+
+    void close(long timeout, TimeUnit unit) throws InterruptedException {
+        running = false;
+        thread.join(unit.toMillis(timeout));
+        if (thread.isAlive()) {
+            log.warn("Shutdown outcome writer timeout, {} outcomes left", queue.size());
+            return;
+        }
+        // 写入线程退出后才入队的结果
+        val left = new ArrayList<Outcome>();
+        queue.drainTo(left);
+        left.forEach(this::writeOne);
+    }
+
+    @Override
+    public void run() {
+        val batch = new ArrayList<Outcome>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                val first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                val deadline = System.nanoTime() + flushInterval;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    val left = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || left <= 0) {
+                        break;
+                    }
+                    val next = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            }
+            catch (InterruptedException e) {
+                running = false;
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Outcome> batch) {
+        final boolean[] updated;
+        try {
+            updated = transactionTemplate.execute(status -> {
+                val result = new boolean[batch.size()];
+                // 先锁定仍在投递中的邮件，由认领令牌判断写入权，不依赖驱动返回的更新行数
+                // (rewriteBatchedStatements=true时为SUCCESS_NO_INFO)
+                val ids = batch.stream().map(outcome -> outcome.mailbox().getId()).distinct().toList();
+                val locked = new HashMap<Long, Mailbox>();
+                mailboxMapper.lockByIds(ids, MailStatus.SENDING)
+                    .forEach(mailbox -> locked.put(mailbox.getId(), mailbox));
+                val owned = new ArrayList<Mailbox>(batch.size());
+                val deliveries = new ArrayList<Delivery>(batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    val mailbox = batch.get(i).mailbox();
+                    // 同一封邮件只有第一个结果能写入
+                    val current = locked.remove(mailbox.getId());
+                    result[i] = current != null && (mailbox.getClaimToken() == null
+                            || mailbox.getClaimToken().equals(current.getClaimToken()));
+                    if (result[i]) {
+                        owned.add(mailbox);
+                        deliveries.add(batch.get(i).delivery());
+                    }
+                }
+                if (!owned.isEmpty()) {
+                    val counts = updateCounts(updateClaimed(owned));
+                    if (counts.size() != owned.size()
+                            || counts.stream().anyMatch(count -> count == 0 || count == Statement.EXECUTE_FAILED)) {
+                        // 行已锁定，不应发生；回滚后逐条写入
+                        throw new IllegalStateException("Update counts do not match the locked mails");
+                    }
+                    deliveryMapper.insert(deliveries);
+                }
+                return result;
+            });
+        }
+        catch (Exception e) {
+            log.warn("Cannot write {} outcomes in batch, retry one by one: {}", batch.size(), e.getMessage());
+            batch.forEach(this::writeOne);
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            val outcome = batch.get(i);
+            if (updated != null && updated[i]) {
+                outcome.future().complete(null);
+            }
+            else {
+                outcome.future()
+                    .completeExceptionally(new IllegalStateException("Cannot update mailbox status to "
+                            + outcome.mailbox().getStatus() + ": " + outcome.mailbox().getMsgId()));
+            }
+        }
+    }
+
+    private void writeOne(Outcome outcome) {
+        try {
+            single.accept(outcome.mailbox(), outcome.delivery());
+            outcome.future().complete(null);
+        }
+        catch (Exception e) {
+            outcome.future().completeExceptionally(e);
+        }
+    }
+
+    private List<BatchResult> updateClaimed(List<Mailbox> mailboxes) {
+        // 与updateById(Collection)一样走JDBC批量，但每行都带认领条件
+        val proxy = MybatisUtils.getMybatisMapperProxy(mailboxMapper);
+        val method = new MybatisBatch.Method<Mailbox>(proxy.getMapperInterface());
+        return MybatisBatchUtils.execute(MybatisUtils.getSqlSessionFactory(proxy), mailboxes,
+                method.update(mailbox -> mailbox, MailboxServiceImpl::claimed));
+    }
+
+    private static List<Integer> updateCounts(List<BatchResult> results) {
+        val counts = new ArrayList<Integer>();
+        for (BatchResult result : results) {
+            for (int count : result.getUpdateCounts()) {
+                counts.add(count);
+            }
+        }
+        return counts;
+    }
+
+    record Outcome(Mailbox mailbox, Delivery delivery, CompletableFuture<Void> future) {
+    }
+
+}
@@ -16,13 +16,20 @@
  */
 package com.apzda.cloud.msg.mq;
 
+import com.apzda.cloud.msg.DeliveryDeferredException;
+import jakarta.annotation.Nonnull;
 import lombok.extern.slf4j.Slf4j;
+import lombok.val;
 import org.apache.rocketmq.client.exception.MQClientException;
 import org.apache.rocketmq.client.producer.SendCallback;
 import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.spring.core.RocketMQTemplate;
 import org.springframework.messaging.Message;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * @author fengz (windywany@gmail.com)
  * @version 1.0.0
@@ -31,10 +38,19 @@ import org.springframework.messaging.Message;
 @Slf4j
 public abstract class AbstractRateLimiter implements RocketMqRateLimiter {
 
+    /**
+     * RocketMQ一批消息的大小上限.
+     */
+    private static final int MAX_BATCH_SIZE = 4 * 1024 * 1024;
+
     private final RocketMQTemplate mqTemplate;
 
     private final int maxRetry;
 
+    private final LongAdder limited = new LongAdder();
+
+    private final LongAdder limitedWait = new LongAdder();
+
     public AbstractRateLimiter(RocketMQTemplate mqTemplate, int maxRetry) {
         this.mqTemplate = mqTemplate;
         this.maxRetry = maxRetry;
@@ -51,33 +67,42 @@ public abstract class AbstractRateLimiter implements RocketMqRateLimiter {
     }
 
     @Override
-    public void asyncSendMessage(String destination, Message<byte[]> message) {
-        asyncSendMessage(destination, message, 0);
+    public CompletableFuture<Void> asyncSendMessage(String destination, Message<byte[]> message) {
+        acquire(destination);
+        val future = new CompletableFuture<Void>();
+        asyncSendMessage(destination, message, 0, future);
+        return future;
     }
 
-    private void asyncSendMessage(String destination, Message<byte[]> message, int retry) {
-        if (isLimited(destination)) {
-            return;
-        }
-
-        mqTemplate.asyncSend(destination, message, new SendCallback() {
-            @Override
-            public void onSuccess(SendResult sendResult) {
-            }
+    private void asyncSendMessage(String destination, Message<byte[]> message, int retry,
+            CompletableFuture<Void> future) {
+        try {
+            mqTemplate.asyncSend(destination, message, new SendCallback() {
+                @Override
+                public void onSuccess(SendResult sendResult) {
+                    future.complete(null);
+                }
 
-            @Override
-            public void onException(Throwable e) {
-                log.debug("第{}次消息投递到{}失败, 重试: {}/{}, 原因: {}", retry, destination, retry, maxRetry, e.getMessage());
-                if (retry < maxRetry) {
-                    asyncSendMessage(destination, message, retry + 1);
+                @Override
+                public void onException(Throwable e) {
+                    log.debug("第{}次消息投递到{}失败, 重试: {}/{}, 原因: {}", retry, destination, retry, maxRetry, e.getMessage());
+                    if (retry < maxRetry) {
+                        asyncSendMessage(destination, message, retry + 1, future);
+                    }
+                    else {
+                        future.completeExceptionally(e);
+                    }
                 }
-            }
-        });
+            });
+        }
+        catch (Exception e) {
+            future.completeExceptionally(e);
+        }
     }
 
     private void sendMessage(String destination, Message<byte[]> message, int retry) {
-        if (isLimited(destination)) {
-            return;
+        if (retry == 0) {
+            acquire(destination);
         }
 
         try {
@@ -95,4 +120,101 @@ public abstract class AbstractRateLimiter implements RocketMqRateLimiter {
         }
     }
 
+    @Override
+    public void sendBatch(String destination, List<Message<byte[]>> messages) {
+        sendBatch(destination, messages, 0);
+    }
+
+    @Override
+    public CompletableFuture<Void> asyncSendBatch(String destination, List<Message<byte[]>> messages) {
+        val future = new CompletableFuture<Void>();
+        asyncSendBatch(destination, messages, 0, future);
+        return future;
+    }
+
+    @Override
+    public int getMaxMessageSize() {
+        return Math.min(MAX_BATCH_SIZE, mqTemplate.getProducer().getMaxMessageSize());
+    }
+
+    @Nonnull
+    @Override
+    public RateLimitGrant acquire(String destination, int permits) {
+        val grant = RocketMqRateLimiter.super.acquire(destination, permits);
+        val denied = permits - grant.granted();
+        if (denied > 0) {
+            limited.add(denied);
+            limitedWait.add(denied * grant.retryAfter().toMillis());
+        }
+        return grant;
+    }
+
+    private void sendBatch(String destination, List<Message<byte[]>> messages, int retry) {
+        try {
+            mqTemplate.syncSend(destination, messages);
+        }
+        catch (Exception e) {
+            log.debug("第{}次批量消息({}条)投递到{}失败, 重试: {}/{}, 原因: {}", retry, messages.size(), destination, retry, maxRetry,
+                    e.getMessage());
+
+            if (retry < maxRetry && e instanceof MQClientException) {
+                sendBatch(destination, messages, retry + 1);
+            }
+            else {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void asyncSendBatch(String destination, List<Message<byte[]>> messages, int retry,
+            CompletableFuture<Void> future) {
+        try {
+            mqTemplate.asyncSend(destination, messages, new SendCallback() {
+                @Override
+                public void onSuccess(SendResult sendResult) {
+                    future.complete(null);
+                }
+
+                @Override
+                public void onException(Throwable e) {
+                    log.debug("第{}次批量消息({}条)投递到{}失败, 重试: {}/{}, 原因: {}", retry, messages.size(), destination, retry,
+                            maxRetry, e.getMessage());
+                    if (retry < maxRetry) {
+                        asyncSendBatch(destination, messages, retry + 1, future);
+                    }
+                    else {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        }
+        catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return 被限速(推迟投递)的次数
+     */
+    public long getLimitedCount() {
+        return limited.sum();
+    }
+
+    /**
+     * @return 被限速的消息累计需等待的时长(毫秒)
+     */
+    public long getLimitedWait() {
+        return limitedWait.sum();
+    }
+
+    private void acquire(String destination) {
+        // 被限速时不等待，交给重试调度在retryAfter之后重新投递
+        val decision = tryAcquire(destination);
+        if (!decision.permitted()) {
+            limited.increment();
+            limitedWait.add(decision.retryAfter().toMillis());
+            throw new DeliveryDeferredException("Rate limited: " + destination, decision.retryAfter());
+        }
+    }
+
 }
@@ -16,10 +16,24 @@
  */
 package com.apzda.cloud.msg.mq;
 
+import com.apzda.cloud.msg.config.MessengerServiceProperties;
+import jakarta.annotation.Nonnull;
 import lombok.extern.slf4j.Slf4j;
+import lombok.val;
 import org.apache.rocketmq.spring.core.RocketMQTemplate;
 
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
 /**
+ * 进程内按目的地限速的令牌桶.
+ * <p>
+ * 没有Redis时使用，每个JVM独立计数. 令牌桶以理论到达时间(GCRA)的形式保存在一个{@link AtomicLong}中，
+ * 通过CAS推进，不加锁，也不需要补充令牌的线程.
+ *
  * @author fengz (windywany@gmail.com)
  * @version 1.0.0
  * @since 1.0.0
@@ -27,8 +41,93 @@ import org.apache.rocketmq.spring.core.RocketMQTemplate;
 @Slf4j
 public class FixedRateLimiter extends AbstractRateLimiter {
 
-    public FixedRateLimiter(RocketMQTemplate mqTemplate, int maxRetry) {
-        super(mqTemplate, maxRetry);
+    private static final Bucket UNLIMITED = new Bucket(0, 0);
+
+    private final MessengerServiceProperties properties;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private final LongSupplier ticker;
+
+    public FixedRateLimiter(RocketMQTemplate mqTemplate, MessengerServiceProperties properties) {
+        this(mqTemplate, properties, System::nanoTime);
+    }
+
+    /**
+     * @param ticker 单调时钟(纳秒)
+     */
+    FixedRateLimiter(RocketMQTemplate mqTemplate, MessengerServiceProperties properties, LongSupplier ticker) {
+        super(mqTemplate, properties.getLimitRetry());
+        this.properties = properties;
+        this.ticker = ticker;
+        log.info("投递限速器(进程内)初始化完成。默认限速: {}/秒，按目的地限速: {}", properties.getLimitRate(),
+                properties.getRateLimits().keySet());
+    }
+
+    @Nonnull
+    @Override
+    public RateLimitDecision tryAcquire(String destination) {
+        val bucket = buckets.computeIfAbsent(destination, this::resolve);
+        if (bucket == UNLIMITED) {
+            return RateLimitDecision.PERMIT;
+        }
+
+        val wait = bucket.take(ticker.getAsLong());
+        return wait > 0 ? RateLimitDecision.retryAfter(Duration.ofNanos(wait)) : RateLimitDecision.PERMIT;
+    }
+
+    @Nonnull
+    private Bucket resolve(String destination) {
+        val limit = properties.getRateLimit(destination);
+        val rate = limit.getRate();
+        if (rate < 1) {
+            return UNLIMITED;
+        }
+        val interval = Math.max(1, limit.getPeriod().toNanos() / rate);
+        return new Bucket(interval, limit.getBurst() < 1 ? rate : limit.getBurst());
+    }
+
+    private static final class Bucket {
+
+        /**
+         * 生成一个令牌的时间(纳秒).
+         */
+        private final long interval;
+
+        /**
+         * 桶的容量.
+         */
+        private final long capacity;
+
+        /**
+         * 理论到达时间: 桶被取空时再取一个令牌的时间.
+         */
+        private final AtomicLong tat = new AtomicLong(Long.MIN_VALUE);
+
+        Bucket(long interval, long capacity) {
+            this.interval = interval;
+            this.capacity = capacity;
+        }
+
+        /**
+         * @param now 当前时间(纳秒)
+         * @return 0表示取到令牌，否则为需要等待的纳秒数
+         */
+        long take(long now) {
+            while (true) {
+                val current = tat.get();
+                val start = current == Long.MIN_VALUE || current - now < 0 ? now : current;
+                val next = start + interval;
+                val wait = next - capacity * interval - now;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (tat.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+
     }
 
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.mq;
+
+import com.apzda.cloud.msg.config.MessengerServiceProperties;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于GCRA(通用信元速率算法)的按目的地限速器.
+ * <p>
+ * 每个目的地(topic:tag)在Redis中只保存一个理论到达时间(TAT)，由Lua脚本原子地判断并推进，时间取Redis服务器时间.
+ * 不需要补充令牌的线程，也不需要选举.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public class RedisGcraRateLimiter extends AbstractRateLimiter {
+
+    public static final String KEY_PREFIX = "apzda:messenger:rate:";
+
+    /**
+     * KEYS[1]: 目的地的键; ARGV[1]: 发射间隔(微秒); ARGV[2]: 突发容量; ARGV[3]: 申请的令牌数; ARGV[4]: 归还的令牌数.
+     * <p>
+     * 返回大于0时为发放的令牌数，小于0时为需要等待的微秒数(取负)，只归还令牌时返回0.
+     */
+    private static final RedisScript<Long> SCRIPT = RedisScript.of("""
+            if redis.replicate_commands then
+                redis.replicate_commands()
+            end
+            local interval = tonumber(ARGV[1])
+            local burst = tonumber(ARGV[2])
+            local want = tonumber(ARGV[3])
+            local give = tonumber(ARGV[4])
+            local time = redis.call('TIME')
+            local now = tonumber(time[1]) * 1000000 + tonumber(time[2])
+            local tat = tonumber(redis.call('GET', KEYS[1])) or now
+            tat = tat - give * interval
+            if tat < now then
+                tat = now
+            end
+            local granted = 0
+            if want > 0 then
+                granted = math.floor((now + burst * interval - tat) / interval)
+                if granted > want then
+                    granted = want
+                end
+                if granted < 1 then
+                    granted = now - (tat + interval - burst * interval)
+                else
+                    tat = tat + granted * interval
+                end
+            end
+            redis.call('SET', KEYS[1], string.format('%d', tat), 'PX', math.ceil((tat - now) / 1000) + 1)
+            return granted
+            """, Long.class);
+
+    private static final Gcra UNLIMITED = new Gcra(0, 0);
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final MessengerServiceProperties properties;
+
+    private final Map<String, Gcra> limits = new ConcurrentHashMap<>();
+
+    public RedisGcraRateLimiter(RocketMQTemplate mqTemplate, StringRedisTemplate redisTemplate,
+            MessengerServiceProperties properties) {
+        super(mqTemplate, properties.getLimitRetry());
+        this.redisTemplate = redisTemplate;
+        this.properties = properties;
+        log.info("投递限速器初始化完成。默认限速: {}/秒，按目的地限速: {}", properties.getLimitRate(), properties.getRateLimits().keySet());
+    }
+
+    @Nonnull
+    @Override
+    public RateLimitDecision tryAcquire(String destination) {
+        val gcra = gcra(destination);
+        if (gcra == null) {
+            return RateLimitDecision.PERMIT;
+        }
+
+        try {
+            val granted = lease(destination, gcra, 1, 0);
+            if (log.isTraceEnabled()) {
+                log.trace("获取投递机会: {}, 结果: {}", destination, granted);
+            }
+            if (granted < 0) {
+                return RateLimitDecision.retryAfter(Duration.of(-granted, ChronoUnit.MICROS));
+            }
+        }
+        catch (Exception e) {
+            // Redis不可用时不限速
+            log.warn("获取投递机会时发生异常: {} - {}", destination, e.getMessage());
+        }
+
+        return RateLimitDecision.PERMIT;
+    }
+
+    /**
+     * @param destination 目的地
+     * @return 目的地的限速参数，不限速时为null
+     */
+    @Nullable
+    protected Gcra gcra(String destination) {
+        val gcra = limits.computeIfAbsent(destination, this::resolve);
+        return gcra == UNLIMITED ? null : gcra;
+    }
+
+    /**
+     * 从Redis申请并(或)归还令牌.
+     * @param destination 目的地
+     * @param gcra 限速参数
+     * @param want 申请的令牌数
+     * @param give 归还的令牌数
+     * @return 大于0时为发放的令牌数，小于0时为需要等待的微秒数(取负)
+     */
+    protected long lease(String destination, @Nonnull Gcra gcra, long want, long give) {
+        val result = redisTemplate.execute(SCRIPT, List.of(KEY_PREFIX + destination), String.valueOf(gcra.interval()),
+                String.valueOf(gcra.burst()), String.valueOf(want), String.valueOf(give));
+        return result == null ? 0 : result;
+    }
+
+    @Nonnull
+    private Gcra resolve(String destination) {
+        val limit = properties.getRateLimit(destination);
+        val rate = limit.getRate();
+        if (rate < 1) {
+            return UNLIMITED;
+        }
+        val period = Math.max(1, limit.getPeriod().toNanos() / 1000);
+        return new Gcra(Math.max(1, period / rate), limit.getBurst() < 1 ? rate : limit.getBurst());
+    }
+
+    /**
+     * @param interval 发射间隔(微秒)
+     * @param burst 突发容量
+     */
+    protected record Gcra(long interval, long burst) {
+    }
+
+}
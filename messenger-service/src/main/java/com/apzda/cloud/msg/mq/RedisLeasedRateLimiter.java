@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.mq;
+
+import com.apzda.cloud.msg.config.MessengerServiceProperties;
+import jakarta.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 按窗口从Redis租借令牌的限速器.
+ * <p>
+ * 每个目的地一次从Redis租借一批令牌，在本地以CAS发放，只有本地令牌用完或窗口结束时才访问Redis. 窗口结束时未用完的令牌归还给Redis.
+ * 每批令牌最多覆盖一个窗口的速率，所以全局速率的误差不超过一个窗口. 批量大小自适应: 窗口内用完则翻倍，否则缩小到上个窗口实际用掉的数量.
+ * <p>
+ * 窗口长度带有随机抖动，避免各实例同时续租. 后台每个窗口清扫一次，把已过期且闲置的租约中剩余的令牌还给Redis， 闲置的目的地不会一直占着令牌.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public class RedisLeasedRateLimiter extends RedisGcraRateLimiter {
+
+    private final long window;
+
+    private final Map<String, AtomicReference<Lease>> leases = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService sweeper;
+
+    public RedisLeasedRateLimiter(RocketMQTemplate mqTemplate, StringRedisTemplate redisTemplate,
+            MessengerServiceProperties properties) {
+        super(mqTemplate, redisTemplate, properties);
+        this.window = Math.max(1, properties.getLimitLeaseWindow().toNanos() / 1000);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            val thread = new Thread(r);
+            thread.setName("messenger-lease-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, window, window, TimeUnit.MICROSECONDS);
+        log.info("投递限速器按窗口租借令牌: {}", properties.getLimitLeaseWindow());
+    }
+
+    @Nonnull
+    @Override
+    public RateLimitDecision tryAcquire(String destination) {
+        val gcra = gcra(destination);
+        if (gcra == null) {
+            return RateLimitDecision.PERMIT;
+        }
+
+        val ref = leases.computeIfAbsent(destination, key -> new AtomicReference<>(Lease.EMPTY));
+        val lease = ref.get();
+        val now = micros();
+        if (now < lease.expireAt()) {
+            if (lease.take()) {
+                return RateLimitDecision.PERMIT;
+            }
+            if (lease.granted() == 0 && lease != Lease.EMPTY) {
+                // 被Redis拒绝后，等待期间不再访问Redis
+                return RateLimitDecision.retryAfter(Duration.of(lease.expireAt() - now, ChronoUnit.MICROS));
+            }
+        }
+
+        // 本地令牌已用完或窗口已结束: 抢到剩余令牌的线程负责归还
+        val unused = lease.drain();
+        val used = lease.granted() - unused;
+        val maxChunk = Math.max(1, Math.min(gcra.burst(), window / gcra.interval()));
+        final long chunk;
+        if (lease == Lease.EMPTY || used >= lease.granted()) {
+            chunk = Math.min(maxChunk, Math.max(1, lease.chunk() * 2));
+        }
+        else {
+            chunk = Math.max(1, used);
+        }
+
+        try {
+            val granted = lease(destination, gcra, chunk, unused);
+            if (granted < 0) {
+                ref.compareAndSet(lease, new Lease(now - granted, 0, Math.max(1, chunk / 2), new AtomicLong()));
+                return RateLimitDecision.retryAfter(Duration.of(-granted, ChronoUnit.MICROS));
+            }
+            // 自己用掉一个，其余放到本地
+            val next = new Lease(micros() + jittered(), granted, chunk, new AtomicLong(granted - 1));
+            if (!ref.compareAndSet(lease, next) && granted > 1) {
+                // 其它线程已换上新窗口，多租的令牌还回去
+                lease(destination, gcra, 0, granted - 1);
+            }
+        }
+        catch (Exception e) {
+            // Redis不可用时不限速
+            log.warn("租借令牌时发生异常: {} - {}", destination, e.getMessage());
+        }
+
+        return RateLimitDecision.PERMIT;
+    }
+
+    /**
+     * 停止清扫并归还所有未用完的令牌.
+     */
+    public void close() {
+        sweeper.shutdownNow();
+        leases.forEach((destination, ref) -> release(destination, ref, Long.MAX_VALUE));
+    }
+
+    /**
+     * 归还已过期租约中未用完的令牌.
+     */
+    void sweep() {
+        val now = micros();
+        leases.forEach((destination, ref) -> release(destination, ref, now));
+    }
+
+    private void release(String destination, AtomicReference<Lease> ref, long now) {
+        val lease = ref.get();
+        if (lease == Lease.EMPTY || now < lease.expireAt() || lease.remaining().get() <= 0) {
+            return;
+        }
+        val gcra = gcra(destination);
+        val unused = lease.drain();
+        if (gcra == null || unused <= 0) {
+            return;
+        }
+        // 下次按本窗口实际用掉的数量重新起步
+        val used = lease.granted() - unused;
+        ref.compareAndSet(lease, new Lease(lease.expireAt(), used, Math.max(1, used / 2), new AtomicLong()));
+        try {
+            lease(destination, gcra, 0, unused);
+        }
+        catch (Exception e) {
+            log.warn("归还令牌时发生异常: {} - {}", destination, e.getMessage());
+        }
+    }
+
+    /**
+     * @return 窗口长度，随机缩短至多1/4，避免各实例在同一时刻续租
+     */
+    private long jittered() {
+        return window - ThreadLocalRandom.current().nextLong(window / 4 + 1);
+    }
+
+    private static long micros() {
+        return System.nanoTime() / 1000;
+    }
+
+    /**
+     * 一个窗口内租到的令牌.
+     *
+     * @param expireAt 窗口结束时间(微秒)
+     * @param granted 租到的令牌数
+     * @param chunk 申请的令牌数
+     * @param remaining 剩余的令牌数
+     */
+    private record Lease(long expireAt, long granted, long chunk, AtomicLong remaining) {
+
+        static final Lease EMPTY = new Lease(0, 0, 0, new AtomicLong());
+
+        boolean take() {
+            long left;
+            do {
+                left = remaining.get();
+                if (left <= 0) {
+                    return false;
+                }
+            }
+            while (!remaining.compareAndSet(left, left - 1));
+            return true;
+        }
+
+        long drain() {
+            return remaining.getAndSet(0);
+        }
+
+    }
+
+}
@@ -16,8 +16,13 @@
  */
 package com.apzda.cloud.msg.mq;
 
+import jakarta.annotation.Nonnull;
 import org.springframework.messaging.Message;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author fengz (windywany@gmail.com)
  * @version 1.0.0
@@ -28,17 +33,67 @@ public interface RocketMqRateLimiter {
     /**
      * @param destination formats: `topicName:tags`
      * @param message 消息
+     * @throws com.apzda.cloud.msg.DeliveryDeferredException 被限速时
      */
     void sendMessage(String destination, Message<byte[]> message);
 
     /**
      * @param destination formats: `topicName:tags`
      * @param message 消息
+     * @return 发送(含重试)完成时结束
+     * @throws com.apzda.cloud.msg.DeliveryDeferredException 被限速时
+     */
+    CompletableFuture<Void> asyncSendMessage(String destination, Message<byte[]> message);
+
+    /**
+     * 将发往同一目的地的一批消息作为一条RocketMQ批量消息发送，一批消息同时成功或失败.
+     * <p>
+     * 不申请投递机会，调用者需先通过{@link #acquire(String, int)}申请.
+     * @param destination formats: `topicName:tags`
+     * @param messages 消息，总大小不能超过{@link #getMaxMessageSize()}
      */
-    void asyncSendMessage(String destination, Message<byte[]> message);
+    void sendBatch(String destination, List<Message<byte[]>> messages);
 
-    default boolean isLimited(String destination) {
-        return false;
+    /**
+     * 异步发送批量消息，见{@link #sendBatch(String, List)}.
+     * @param destination formats: `topicName:tags`
+     * @param messages 消息，总大小不能超过{@link #getMaxMessageSize()}
+     * @return 发送(含重试)完成时结束
+     */
+    CompletableFuture<Void> asyncSendBatch(String destination, List<Message<byte[]>> messages);
+
+    /**
+     * @return 一条消息或一批消息允许的最大字节数
+     */
+    default int getMaxMessageSize() {
+        return 4 * 1024 * 1024;
+    }
+
+    /**
+     * 为发往同一目的地的一批消息逐一申请投递机会，直到被限速，不阻塞调用线程.
+     * @param destination formats: `topicName:tags`
+     * @param permits 消息数
+     * @return 允许投递的消息数，其余消息多久之后再试
+     */
+    @Nonnull
+    default RateLimitGrant acquire(String destination, int permits) {
+        for (int i = 0; i < permits; i++) {
+            final RateLimitDecision decision = tryAcquire(destination);
+            if (!decision.permitted()) {
+                return new RateLimitGrant(i, decision.retryAfter());
+            }
+        }
+        return new RateLimitGrant(permits, Duration.ZERO);
+    }
+
+    /**
+     * 申请一次投递机会，不阻塞调用线程.
+     * @param destination formats: `topicName:tags`
+     * @return 允许投递或者多久之后再试
+     */
+    @Nonnull
+    default RateLimitDecision tryAcquire(String destination) {
+        return RateLimitDecision.PERMIT;
     }
 
 }
@@ -21,6 +21,8 @@ import com.apzda.cloud.msg.TextMail;
 import jakarta.annotation.Nonnull;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Set;
+
 /**
  * @author fengz (windywany@gmail.com)
  * @version 1.0.0
@@ -34,6 +36,12 @@ public class DemoPostman implements Postman<String, TextMail> {
         return "demo".equals(postman);
     }
 
+    @Nonnull
+    @Override
+    public Set<String> names() {
+        return Set.of("demo");
+    }
+
     @Override
     public boolean deliver(@Nonnull TextMail message) {
         log.info("Mail Delivered: {}", message);
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.msg.postman;
+
+import com.apzda.cloud.msg.Postman;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 邮递员注册表.
+ * <p>
+ * 启动(及上下文刷新)时按{@link Postman#names()}建立名称索引，投递时按名称直接查找;
+ * 未声明名称的邮递员通过{@link Postman#supports(String)}匹配，匹配结果会被缓存; 找不到邮递员的名称也会被缓存(最多
+ * {@value #MAX_MISSES}个)，不再逐个匹配.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public class PostmanRegistry implements ApplicationListener<ContextRefreshedEvent> {
+
+    static final int MAX_MISSES = 1024;
+
+    private final ObjectProvider<Postman<?, ?>> provider;
+
+    private final Map<String, Postman<?, ?>> resolved = new ConcurrentHashMap<>();
+
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong unknown = new AtomicLong();
+
+    private volatile Map<String, Postman<?, ?>> postmen;
+
+    private volatile List<Postman<?, ?>> fallbacks;
+
+    public PostmanRegistry(ObjectProvider<Postman<?, ?>> provider) {
+        this.provider = provider;
+    }
+
+    @Override
+    public void onApplicationEvent(@Nonnull ContextRefreshedEvent event) {
+        refresh();
+    }
+
+    /**
+     * 重新加载邮递员.
+     */
+    public synchronized void refresh() {
+        val named = new HashMap<String, Postman<?, ?>>();
+        val others = new ArrayList<Postman<?, ?>>();
+        provider.orderedStream().forEach(postman -> {
+            val names = postman.names();
+            if (names.isEmpty()) {
+                others.add(postman);
+            }
+            for (String name : names) {
+                // 与stream().findFirst()一致，先注册的优先
+                named.putIfAbsent(name, postman);
+            }
+        });
+        fallbacks = others;
+        postmen = named;
+        resolved.clear();
+        missing.clear();
+        log.debug("Postman registry refreshed: names={}, others={}", named.keySet(), others.size());
+    }
+
+    /**
+     * 查找邮递员.
+     * @param name 邮递员名称
+     * @return 不存在时返回null
+     */
+    @Nullable
+    public Postman<?, ?> get(@Nonnull String name) {
+        if (postmen == null) {
+            refresh();
+        }
+        Postman<?, ?> postman = postmen.get(name);
+        if (postman == null) {
+            postman = resolved.get(name);
+        }
+        if (postman == null) {
+            if (missing.contains(name)) {
+                return null;
+            }
+            postman = fallbacks.stream().filter(pm -> pm.supports(name)).findFirst().orElse(null);
+            if (postman == null) {
+                if (missing.size() >= MAX_MISSES) {
+                    missing.clear();
+                }
+                if (missing.add(name)) {
+                    unknown.incrementAndGet();
+                }
+                return null;
+            }
+            resolved.put(name, postman);
+        }
+        return postman;
+    }
+
+    /**
+     * @return 找不到邮递员的名称数
+     */
+    public long getUnknownCount() {
+        return unknown.get();
+    }
+
+}
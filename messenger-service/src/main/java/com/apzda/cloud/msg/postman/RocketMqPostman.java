@@ -16,15 +16,29 @@
  */
 package com.apzda.cloud.msg.postman;
 
+import com.apzda.cloud.msg.DeliveryDeferredException;
+import com.apzda.cloud.msg.DeliveryResult;
 import com.apzda.cloud.msg.Postman;
 import com.apzda.cloud.msg.RocketMail;
+import com.apzda.cloud.msg.config.MessengerServiceProperties;
 import com.apzda.cloud.msg.mq.RocketMqRateLimiter;
 import jakarta.annotation.Nonnull;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
+import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -34,20 +48,205 @@ import java.nio.charset.StandardCharsets;
 @RequiredArgsConstructor
 public class RocketMqPostman implements Postman<String, RocketMail> {
 
+    /**
+     * 估算批量消息大小时每条消息除消息体外的开销(属性、长度、校验码等).
+     */
+    private static final int MESSAGE_OVERHEAD = 256;
+
     private final RocketMqRateLimiter limiter;
 
+    private final MessengerServiceProperties.Forward forward;
+
+    private final Map<String, Semaphore> windows = new ConcurrentHashMap<>();
+
     @Override
     public boolean supports(@Nonnull String postman) {
         return "rocketmq".equals(postman);
     }
 
+    @Nonnull
+    @Override
+    public Set<String> names() {
+        return Set.of("rocketmq");
+    }
+
     @Override
     public boolean deliver(@Nonnull RocketMail message) {
-        val msg = MessageBuilder.withPayload(message.getContent().getBytes(StandardCharsets.UTF_8)).build();
-        limiter.sendMessage(message.getRecipients(), msg);
+        limiter.sendMessage(message.getRecipients(), toMessage(message));
         return true;
     }
 
+    @Nonnull
+    @Override
+    public CompletionStage<DeliveryResult> deliverAsync(@Nonnull RocketMail message) {
+        if (!forward.isAsync()) {
+            return Postman.super.deliverAsync(message);
+        }
+
+        val destination = message.getRecipients();
+        // 每个目的地的在途消息有上限，窗口满时不等待，推迟投递(不阻塞投递线程)
+        val window = windows.computeIfAbsent(destination, key -> new Semaphore(Math.max(1, forward.getMaxInFlight())));
+        if (!window.tryAcquire()) {
+            return CompletableFuture.completedFuture(DeliveryResult.deferred(forward.getAcquireTimeout()));
+        }
+
+        try {
+            return limiter.asyncSendMessage(destination, toMessage(message))
+                .whenComplete((v, e) -> window.release())
+                .thenApply(v -> DeliveryResult.delivered());
+        }
+        catch (DeliveryDeferredException e) {
+            window.release();
+            return CompletableFuture.completedFuture(DeliveryResult.deferred(e.getRetryAfter()));
+        }
+        catch (RuntimeException e) {
+            window.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean supportsBatch() {
+        return forward.isBatch();
+    }
+
+    @Nonnull
+    @Override
+    public CompletionStage<List<DeliveryResult>> deliverBatch(@Nonnull List<RocketMail> messages) {
+        val results = new DeliveryResult[messages.size()];
+        // 按目的地(topic:tag)分组，每组合并为一条或多条批量消息
+        val groups = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < messages.size(); i++) {
+            groups.computeIfAbsent(messages.get(i).getRecipients(), key -> new ArrayList<>()).add(i);
+        }
+
+        val futures = new ArrayList<CompletableFuture<Void>>();
+        for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+            futures.addAll(deliverGroup(group.getKey(), group.getValue(), messages, results));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+            .thenApply(v -> Arrays.asList(results));
+    }
+
+    @Nonnull
+    private List<CompletableFuture<Void>> deliverGroup(String destination, List<Integer> indexes,
+            List<RocketMail> messages, DeliveryResult[] results) {
+        val maxSize = limiter.getMaxMessageSize();
+        val overhead = destination.length() + MESSAGE_OVERHEAD;
+        val ids = new ArrayList<Integer>(indexes.size());
+        val msgs = new ArrayList<Message<byte[]>>(indexes.size());
+        for (Integer i : indexes) {
+            val msg = toMessage(messages.get(i));
+            if (msg.getPayload().length + overhead > maxSize) {
+                // 超过单条消息的上限，重试也不会成功
+                results[i] = DeliveryResult.permanentFailure("Message is too large: " + msg.getPayload().length);
+                continue;
+            }
+            ids.add(i);
+            msgs.add(msg);
+        }
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+
+        int permits = ids.size();
+        Semaphore window = null;
+        if (forward.isAsync()) {
+            // 批量消息同样占用目的地的在途窗口
+            window = windows.computeIfAbsent(destination, key -> new Semaphore(Math.max(1, forward.getMaxInFlight())));
+            // 只取窗口剩余的许可，放不下的邮件推迟投递
+            permits = tryAcquire(window, permits);
+            if (permits == 0) {
+                ids.forEach(i -> results[i] = DeliveryResult.deferred(forward.getAcquireTimeout()));
+                return List.of();
+            }
+        }
+
+        // 被限速的邮件推迟投递
+        val grant = limiter.acquire(destination, permits);
+        val granted = grant.granted();
+        if (window != null && granted < permits) {
+            window.release(permits - granted);
+        }
+        // 被限速时在retryAfter之后再试，仅因在途窗口放不下时在acquireTimeout之后再试
+        val retryAfter = granted < permits ? grant.retryAfter() : forward.getAcquireTimeout();
+        for (int k = granted; k < ids.size(); k++) {
+            results[ids.get(k)] = DeliveryResult.deferred(retryAfter);
+        }
+
+        // 按大小切分，每批不超过maxSize
+        val futures = new ArrayList<CompletableFuture<Void>>();
+        int from = 0;
+        long size = 0;
+        for (int k = 0; k < granted; k++) {
+            val bytes = msgs.get(k).getPayload().length + overhead;
+            if (k > from && size + bytes > maxSize) {
+                futures.add(sendBatch(destination, ids.subList(from, k), msgs.subList(from, k), results, window));
+                from = k;
+                size = 0;
+            }
+            size += bytes;
+        }
+        if (from < granted) {
+            futures
+                .add(sendBatch(destination, ids.subList(from, granted), msgs.subList(from, granted), results, window));
+        }
+        return futures;
+    }
+
+    @Nonnull
+    private CompletableFuture<Void> sendBatch(String destination, List<Integer> ids, List<Message<byte[]>> msgs,
+            DeliveryResult[] results, Semaphore window) {
+        if (window == null) {
+            DeliveryResult result;
+            try {
+                limiter.sendBatch(destination, msgs);
+                result = DeliveryResult.delivered();
+            }
+            catch (Exception e) {
+                result = DeliveryResult.of(e);
+            }
+            for (Integer i : ids) {
+                results[i] = result;
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> future;
+        try {
+            future = limiter.asyncSendBatch(destination, msgs);
+        }
+        catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        // 一批消息同时成功或失败
+        return future.handle((v, e) -> {
+            window.release(ids.size());
+            val result = e == null ? DeliveryResult.delivered() : DeliveryResult.of(e);
+            for (Integer i : ids) {
+                results[i] = result;
+            }
+            return null;
+        });
+    }
+
+    private static int tryAcquire(Semaphore window, int permits) {
+        while (true) {
+            val available = Math.min(permits, window.availablePermits());
+            if (available <= 0) {
+                return 0;
+            }
+            if (window.tryAcquire(available)) {
+                return available;
+            }
+        }
+    }
+
+    @Nonnull
+    private static Message<byte[]> toMessage(@Nonnull RocketMail message) {
+        return MessageBuilder.withPayload(message.getContent().getBytes(StandardCharsets.UTF_8)).build();
+    }
+
     @Nonnull
     @Override
     public RocketMail encapsulate(String id, String postman, String content) {
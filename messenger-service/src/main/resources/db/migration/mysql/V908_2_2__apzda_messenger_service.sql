@@ -0,0 +1,3 @@
+alter table `apzda_mailbox`
+    add claim_token VARCHAR(64) null DEFAULT NULL comment 'The token of the worker who claimed this mail' after msg_id,
+    add INDEX IDX_CLAIM_TOKEN (claim_token ASC) using btree;
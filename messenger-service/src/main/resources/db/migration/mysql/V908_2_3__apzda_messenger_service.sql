@@ -0,0 +1,3 @@
+alter table `apzda_mailbox`
+    add codec   VARCHAR(16) null DEFAULT NULL comment 'The codec of the payload' after content,
+    add payload LONGBLOB    null comment 'The encoded content of this mail' after codec;
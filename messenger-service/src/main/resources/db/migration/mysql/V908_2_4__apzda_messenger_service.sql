@@ -0,0 +1,7 @@
+delete m1
+from `apzda_mailbox` m1
+         join `apzda_mailbox` m2 on m1.msg_id = m2.msg_id and m1.postman = m2.postman and m1.id > m2.id;
+
+alter table `apzda_mailbox`
+    drop INDEX IDX_MSG_ID,
+    add UNIQUE INDEX UDX_MSG_ID (msg_id ASC, postman) using btree;
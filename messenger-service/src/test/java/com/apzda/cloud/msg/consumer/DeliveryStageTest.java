@@ -0,0 +1,155 @@
+package com.apzda.cloud.msg.consumer;
+
+import com.apzda.cloud.msg.config.MessengerServiceProperties;
+import lombok.val;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class DeliveryStageTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private DeliveryStage stage;
+
+    @BeforeEach
+    void setUp() {
+        val properties = new MessengerServiceProperties();
+        properties.getDelivery().setThreads(4);
+        val slow = new MessengerServiceProperties.Bulkhead();
+        slow.setThreads(1);
+        slow.setQueueSize(1);
+        slow.setOfferTimeout(Duration.ofMillis(100));
+        properties.getBulkheads().put("slow", slow);
+        stage = new DeliveryStage(properties);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        release.countDown();
+        stage.shutdown(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void slow_postman_should_not_block_others() throws InterruptedException {
+        // given: 慢邮递员的线程与队列都已占满
+        val started = new CountDownLatch(1);
+        assertThat(stage.submit("slow", () -> {
+            started.countDown();
+            await(release);
+        })).isTrue();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(stage.submit("slow", () -> await(release))).isTrue();
+
+        // when
+        val begin = System.nanoTime();
+        val rejected = stage.submit("slow", () -> {
+        });
+        val waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        val delivered = new CountDownLatch(1);
+        val accepted = stage.submit("fast", delivered::countDown);
+
+        // then
+        assertThat(rejected).isFalse();
+        assertThat(waited).isGreaterThanOrEqualTo(90);
+        assertThat(accepted).isTrue();
+        assertThat(delivered.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void submitter_should_wait_for_a_free_slot() throws InterruptedException {
+        // given
+        val started = new CountDownLatch(1);
+        stage.submit("slow", () -> {
+            started.countDown();
+            await(release);
+        });
+        started.await(5, TimeUnit.SECONDS);
+        stage.submit("slow", () -> {
+        });
+        val done = new CountDownLatch(1);
+
+        // when: 队列在offerTimeout内空出
+        new Thread(() -> {
+            sleep(30);
+            release.countDown();
+        }).start();
+        val accepted = stage.submit("slow", done::countDown);
+
+        // then
+        assertThat(accepted).isTrue();
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void tasks_should_be_rejected_after_shutdown() throws InterruptedException {
+        // given
+        val count = new AtomicInteger();
+        assertThat(stage.submit("slow", count::incrementAndGet)).isTrue();
+
+        // when
+        stage.shutdown(5, TimeUnit.SECONDS);
+
+        // then
+        assertThat(count.get()).isEqualTo(1);
+        assertThat(stage.submit("slow", count::incrementAndGet)).isFalse();
+    }
+
+    @Test
+    void interrupted_submitter_should_get_interrupted_exception() throws InterruptedException {
+        // given
+        val started = new CountDownLatch(1);
+        stage.submit("slow", () -> {
+            started.countDown();
+            await(release);
+        });
+        started.await(5, TimeUnit.SECONDS);
+        stage.submit("slow", () -> {
+        });
+
+        // when
+        Thread.currentThread().interrupt();
+        var interrupted = false;
+        try {
+            stage.submit("slow", () -> {
+            });
+        }
+        catch (InterruptedException e) {
+            interrupted = true;
+        }
+
+        // then
+        assertThat(interrupted).isTrue();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+package com.apzda.cloud.msg.consumer;
+
+import com.apzda.cloud.msg.Postman;
+import com.apzda.cloud.msg.TextMail;
+import com.apzda.cloud.msg.config.MessengerServiceProperties;
+import com.apzda.cloud.msg.domain.entity.Mailbox;
+import com.apzda.cloud.msg.domain.service.IMailboxService;
+import com.apzda.cloud.msg.domain.vo.MailStatus;
+import com.apzda.cloud.msg.postman.PostmanRegistry;
+import jakarta.annotation.Nonnull;
+import lombok.val;
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class MailboxConsumerTest {
+
+    private final List<String> delivered = new CopyOnWriteArrayList<>();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private MessengerServiceProperties properties;
+
+    private IMailboxService mailboxService;
+
+    private MailboxConsumer consumer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        properties = new MessengerServiceProperties();
+        mailboxService = mock(IMailboxService.class);
+        when(mailboxService.markSuccessAsync(any())).thenReturn(CompletableFuture.completedFuture(null));
+
+        val postman = new Postman<String, TextMail>() {
+            @Override
+            public boolean supports(@Nonnull String postman) {
+                return "test".equals(postman);
+            }
+
+            @Override
+            public boolean deliver(@Nonnull TextMail message) {
+                if (message.getContent().startsWith("slow")) {
+                    await(release);
+                }
+                delivered.add(message.getContent());
+                return true;
+            }
+
+            @Override
+            public TextMail encapsulate(String id, String postman, String content) {
+                return new TextMail(id, postman, content);
+            }
+        };
+        ObjectProvider<Postman<?, ?>> provider = mock(ObjectProvider.class);
+        when(provider.orderedStream()).thenAnswer(invocation -> Stream.of(postman));
+
+        consumer = new MailboxConsumer(properties, mailboxService, Clock.systemDefaultZone(),
+                new PostmanRegistry(provider));
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        consumer.stop();
+    }
+
+    @Test
+    void rejected_mail_should_be_polled_right_away() {
+        // given: 没有时间轮
+        properties.setWheelCapacity(0);
+        val rejected = startWithFullBulkhead();
+
+        // when
+        consumer.onMessage(rejected);
+
+        // then: 不等待下次轮询
+        verify(mailboxService).postpone(argThat(mailbox -> "3".equals(mailbox.getMsgId())), anyLong());
+        verify(mailboxService, timeout(5000).atLeastOnce()).claim(any(), eq(MailStatus.RETRYING), anyInt(), anyLong(),
+                anyString());
+    }
+
+    @Test
+    void rejected_mail_should_be_rescheduled_in_the_wheel() {
+        // given
+        properties.setWheelCapacity(100);
+        properties.setWheelTick(Duration.ofMillis(10));
+        val rejected = startWithFullBulkhead();
+
+        // when
+        consumer.onMessage(rejected);
+
+        // then: 下一个刻度即按ID认领
+        verify(mailboxService).postpone(argThat(mailbox -> "3".equals(mailbox.getMsgId())), anyLong());
+        verify(mailboxService, timeout(5000)).claimByIds(eq(List.of(3L)), anyLong(), anyString());
+    }
+
+    @Test
+    void saved_batch_should_be_acknowledged() {
+        // given
+        val messages = List.of(message("1"), message("2"));
+        when(mailboxService.saveAllIfAbsent(any(), anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+        val context = context();
+
+        // when
+        val status = consumer.onMessages(messages, context);
+
+        // then
+        assertThat(status).isEqualTo(ConsumeConcurrentlyStatus.CONSUME_SUCCESS);
+        assertThat(context.getAckIndex()).isEqualTo(Integer.MAX_VALUE);
+        assertThat(delivered).containsExactly("content 1", "content 2");
+        verify(mailboxService, never()).saveIfAbsent(any());
+    }
+
+    @Test
+    void only_unsaved_messages_should_be_reconsumed() {
+        // given: 整批落库失败，逐条落库时第三条失败
+        val messages = List.of(message("1"), message("2"), message("3"), message("4"));
+        when(mailboxService.saveAllIfAbsent(any(), anyString())).thenThrow(new IllegalStateException("deadlock"));
+        when(mailboxService.saveIfAbsent(any())).thenAnswer(invocation -> {
+            Mailbox mailbox = invocation.getArgument(0);
+            return switch (mailbox.getMsgId()) {
+                case "1" -> true;
+                case "2" -> false;
+                default -> throw new IllegalStateException("deadlock");
+            };
+        });
+        val context = context();
+
+        // when
+        val status = consumer.onMessages(messages, context);
+
+        // then: 前两条确认消费(第二条已存在)，从第三条起稍后重新消费
+        assertThat(status).isEqualTo(ConsumeConcurrentlyStatus.CONSUME_SUCCESS);
+        assertThat(context.getAckIndex()).isEqualTo(1);
+        assertThat(delivered).containsExactly("content 1");
+        verify(mailboxService, times(3)).saveIfAbsent(any(Mailbox.class));
+    }
+
+    @Test
+    void first_unsaved_message_should_reconsume_the_whole_batch() {
+        // given
+        val messages = List.of(message("1"), message("2"));
+        when(mailboxService.saveAllIfAbsent(any(), anyString())).thenThrow(new IllegalStateException("deadlock"));
+        when(mailboxService.saveIfAbsent(any())).thenThrow(new IllegalStateException("deadlock"));
+        val context = context();
+
+        // when
+        val status = consumer.onMessages(messages, context);
+
+        // then
+        assertThat(status).isEqualTo(ConsumeConcurrentlyStatus.CONSUME_SUCCESS);
+        assertThat(context.getAckIndex()).isEqualTo(-1);
+        assertThat(delivered).isEmpty();
+    }
+
+    /**
+     * 启动消费者，并用慢邮件占满只有一个线程、一个队列位置的隔仓.
+     * @return 将被隔仓拒绝的消息
+     */
+    private MessageExt startWithFullBulkhead() {
+        val bulkhead = new MessengerServiceProperties.Bulkhead();
+        bulkhead.setThreads(1);
+        bulkhead.setQueueSize(1);
+        bulkhead.setOfferTimeout(Duration.ofMillis(50));
+        properties.getBulkheads().put("test", bulkhead);
+        properties.getDelivery().setThreads(1);
+        when(mailboxService.saveIfAbsent(any())).thenAnswer(invocation -> {
+            Mailbox mailbox = invocation.getArgument(0);
+            mailbox.setId(Long.parseLong(mailbox.getMsgId()));
+            return true;
+        });
+        when(mailboxService.postpone(any(), anyLong())).thenReturn(true);
+        consumer.prepareStart(new DefaultMQPushConsumer("test"));
+
+        consumer.onMessage(message("1", "slow 1"));
+        consumer.onMessage(message("2", "slow 2"));
+        return message("3", "content 3");
+    }
+
+    private static MessageExt message(String msgId) {
+        return message(msgId, "content " + msgId);
+    }
+
+    private static MessageExt message(String msgId, String content) {
+        val message = new MessageExt();
+        message.setTopic("MESSENGER_MAILBOX");
+        message.setTags("test");
+        message.setBody(content.getBytes(StandardCharsets.UTF_8));
+        message.putUserProperty("msgId", msgId);
+        message.putUserProperty("recipients", "test:demo");
+        return message;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ConsumeConcurrentlyContext context() {
+        return new ConsumeConcurrentlyContext(new MessageQueue("MESSENGER_MAILBOX", "broker-a", 0));
+    }
+
+}
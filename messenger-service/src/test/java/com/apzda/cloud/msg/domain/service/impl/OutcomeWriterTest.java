@@ -0,0 +1,94 @@
+package com.apzda.cloud.msg.domain.service.impl;
+
+import com.apzda.cloud.msg.domain.entity.Delivery;
+import com.apzda.cloud.msg.domain.entity.Mailbox;
+import com.apzda.cloud.msg.domain.mapper.DeliveryMapper;
+import com.apzda.cloud.msg.domain.mapper.MailboxMapper;
+import lombok.val;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class OutcomeWriterTest {
+
+    private final CountDownLatch flushing = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final List<Mailbox> written = new CopyOnWriteArrayList<>();
+
+    private OutcomeWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        val transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any(TransactionCallback.class))).thenAnswer(invocation -> {
+            // 模拟缓慢的组提交
+            flushing.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return new boolean[] { true };
+        });
+        writer = new OutcomeWriter(transactionTemplate, mock(MailboxMapper.class), mock(DeliveryMapper.class),
+                (mailbox, delivery) -> written.add(mailbox), 1, 0, 1, 10);
+    }
+
+    @Test
+    void full_queue_should_fall_back_to_single_write() throws Exception {
+        // given: 写入线程阻塞在组提交中，队列已满
+        val first = writer.write(mailbox(1), new Delivery());
+        assertThat(flushing.await(5, TimeUnit.SECONDS)).isTrue();
+        val queued = writer.write(mailbox(2), new Delivery());
+
+        // when
+        val overflow = writer.write(mailbox(3), new Delivery());
+
+        // then
+        assertThat(overflow).isCompleted();
+        assertThat(written).extracting(Mailbox::getId).containsExactly(3L);
+        assertThat(first).isNotDone();
+        assertThat(queued).isNotDone();
+
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        queued.get(5, TimeUnit.SECONDS);
+        writer.close(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void outcomes_should_be_written_directly_after_close() throws Exception {
+        // given
+        release.countDown();
+        writer.close(5, TimeUnit.SECONDS);
+
+        // when
+        val future = writer.write(mailbox(1), new Delivery());
+
+        // then
+        assertThat(future).isCompleted();
+        assertThat(written).extracting(Mailbox::getId).containsExactly(1L);
+    }
+
+    private static Mailbox mailbox(long id) {
+        val mailbox = new Mailbox();
+        mailbox.setId(id);
+        mailbox.setMsgId("msg-" + id);
+        return mailbox;
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.apzda.cloud.msg.mq;
+
+import com.apzda.cloud.msg.config.MessengerServiceProperties;
+import lombok.val;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class FixedRateLimiterTest {
+
+    /**
+     * 从一个较大的值开始，验证与时间原点无关.
+     */
+    private final AtomicLong now = new AtomicLong(TimeUnit.DAYS.toNanos(1));
+
+    private FixedRateLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        val properties = new MessengerServiceProperties();
+        // 每100ms一个令牌，最多突发3个
+        val limit = new MessengerServiceProperties.RateLimit();
+        limit.setRate(10);
+        limit.setBurst(3);
+        properties.getRateLimits().put("LIMITED:*", limit);
+        limiter = new FixedRateLimiter(new RocketMQTemplate(), properties, now::get);
+    }
+
+    @Test
+    void burst_should_be_the_ceiling() {
+        // when
+        val permitted = new ArrayList<Boolean>();
+        for (int i = 0; i < 4; i++) {
+            permitted.add(limiter.tryAcquire("LIMITED:a").permitted());
+        }
+
+        // then
+        assertThat(permitted).containsExactly(true, true, true, false);
+    }
+
+    @Test
+    void idle_time_should_not_exceed_the_burst() {
+        // given
+        now.addAndGet(TimeUnit.HOURS.toNanos(1));
+
+        // when
+        val grant = limiter.acquire("LIMITED:a", 10);
+
+        // then
+        assertThat(grant.granted()).isEqualTo(3);
+    }
+
+    @Test
+    void tokens_should_refill_after_the_emission_interval() {
+        // given
+        limiter.acquire("LIMITED:a", 3);
+        assertThat(limiter.tryAcquire("LIMITED:a").permitted()).isFalse();
+
+        // when
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(99));
+        val early = limiter.tryAcquire("LIMITED:a");
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        val refilled = limiter.tryAcquire("LIMITED:a");
+
+        // then
+        assertThat(early.permitted()).isFalse();
+        assertThat(refilled.permitted()).isTrue();
+        assertThat(limiter.tryAcquire("LIMITED:a").permitted()).isFalse();
+    }
+
+    @Test
+    void retry_after_should_be_the_time_to_the_next_token() {
+        // given
+        limiter.acquire("LIMITED:a", 3);
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(30));
+
+        // when
+        val decision = limiter.tryAcquire("LIMITED:a");
+
+        // then
+        assertThat(decision.permitted()).isFalse();
+        assertThat(decision.retryAfter()).isEqualTo(Duration.ofMillis(70));
+    }
+
+    @Test
+    void multi_permit_acquire_should_grant_a_prefix() {
+        // when
+        val grant = limiter.acquire("LIMITED:a", 5);
+        val next = limiter.acquire("LIMITED:a", 2);
+
+        // then
+        assertThat(grant.granted()).isEqualTo(3);
+        assertThat(grant.retryAfter()).isEqualTo(Duration.ofMillis(100));
+        assertThat(next.granted()).isZero();
+        assertThat(limiter.getLimitedCount()).isEqualTo(4);
+    }
+
+    @Test
+    void unmatched_destination_should_not_be_limited() {
+        // when
+        val grant = limiter.acquire("FREE:a", 1000);
+
+        // then
+        assertThat(grant.granted()).isEqualTo(1000);
+        assertThat(grant.retryAfter()).isZero();
+    }
+
+    @Test
+    void concurrent_takers_should_not_exceed_the_burst() throws Exception {
+        // given
+        val threads = 16;
+        val executor = Executors.newFixedThreadPool(threads);
+        val start = new CountDownLatch(1);
+        val tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < threads; i++) {
+            tasks.add(() -> {
+                start.await();
+                int permitted = 0;
+                for (int j = 0; j < 1000; j++) {
+                    if (limiter.tryAcquire("LIMITED:a").permitted()) {
+                        permitted++;
+                    }
+                }
+                return permitted;
+            });
+        }
+
+        try {
+            // when
+            val futures = tasks.stream().map(executor::submit).toList();
+            start.countDown();
+            int permitted = 0;
+            for (val future : futures) {
+                permitted += future.get(10, TimeUnit.SECONDS);
+            }
+
+            // then: 时钟不动，CAS竞争下也只能取到突发容量
+            assertThat(permitted).isEqualTo(3);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.apzda.cloud.msg.mq;
+
+import com.apzda.cloud.msg.config.MessengerServiceProperties;
+import lombok.val;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.TestSocketUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class RedisGcraRateLimiterTest {
+
+    static RedisServer redis;
+
+    static LettuceConnectionFactory connectionFactory;
+
+    static RedisGcraRateLimiter limiter;
+
+    static RedisLeasedRateLimiter leasedLimiter;
+
+    static MessengerServiceProperties properties;
+
+    static StringRedisTemplate redisTemplate;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        val port = TestSocketUtils.findAvailableTcpPort();
+        redis = new RedisServer(port);
+        redis.start();
+        connectionFactory = new LettuceConnectionFactory("localhost", port);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+
+        properties = new MessengerServiceProperties();
+        val limit = new MessengerServiceProperties.RateLimit();
+        limit.setRate(10);
+        limit.setBurst(2);
+        properties.getRateLimits().put("LIMITED:*", limit);
+        val burst = new MessengerServiceProperties.RateLimit();
+        burst.setRate(10);
+        burst.setBurst(10);
+        properties.getRateLimits().put("BURST:*", burst);
+        val leased = new MessengerServiceProperties.RateLimit();
+        leased.setRate(1000);
+        properties.getRateLimits().put("LEASED:*", leased);
+        properties.setLimitLeaseWindow(Duration.ofSeconds(1));
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        limiter = new RedisGcraRateLimiter(new RocketMQTemplate(), redisTemplate, properties);
+        leasedLimiter = new RedisLeasedRateLimiter(new RocketMQTemplate(), redisTemplate, properties);
+    }
+
+    @AfterAll
+    static void tearDown() throws IOException {
+        leasedLimiter.close();
+        connectionFactory.destroy();
+        redis.stop();
+    }
+
+    @Test
+    void burst_should_be_permitted_then_deferred() {
+        // when
+        val first = limiter.tryAcquire("LIMITED:a");
+        val second = limiter.tryAcquire("LIMITED:a");
+        val third = limiter.tryAcquire("LIMITED:a");
+
+        // then
+        assertThat(first.permitted()).isTrue();
+        assertThat(second.permitted()).isTrue();
+        assertThat(third.permitted()).isFalse();
+        assertThat(third.retryAfter()).isPositive().isLessThanOrEqualTo(Duration.ofMillis(100));
+    }
+
+    @Test
+    void destinations_should_be_limited_separately() {
+        // given
+        limiter.tryAcquire("LIMITED:b");
+        limiter.tryAcquire("LIMITED:b");
+
+        // when
+        val other = limiter.tryAcquire("LIMITED:c");
+
+        // then
+        assertThat(limiter.tryAcquire("LIMITED:b").permitted()).isFalse();
+        assertThat(other.permitted()).isTrue();
+    }
+
+    @Test
+    void leased_tokens_should_not_exceed_the_rate() {
+        // when
+        int permitted = 0;
+        for (int i = 0; i < 1500; i++) {
+            if (leasedLimiter.tryAcquire("LEASED:a").permitted()) {
+                permitted++;
+            }
+        }
+
+        // then
+        assertThat(permitted).isBetween(1000, 1200);
+        assertThat(leasedLimiter.tryAcquire("LIMITED:d").permitted()).isTrue();
+        assertThat(leasedLimiter.tryAcquire("LIMITED:d").permitted()).isTrue();
+        assertThat(leasedLimiter.tryAcquire("LIMITED:d").permitted()).isFalse();
+    }
+
+    @Test
+    void unused_leased_tokens_should_be_returned() {
+        // given: 共10个令牌，租借了1+2+4个，其中3个还在本地
+        val leased = new RedisLeasedRateLimiter(new RocketMQTemplate(), redisTemplate, properties);
+        for (int i = 0; i < 4; i++) {
+            assertThat(leased.tryAcquire("BURST:e").permitted()).isTrue();
+        }
+        int before = 0;
+        while (limiter.tryAcquire("BURST:e").permitted()) {
+            before++;
+        }
+
+        // when
+        leased.close();
+
+        // then
+        int after = 0;
+        while (limiter.tryAcquire("BURST:e").permitted()) {
+            after++;
+        }
+        assertThat(before).isEqualTo(3);
+        assertThat(after).isEqualTo(3);
+    }
+
+    @Test
+    void unmatched_destination_should_not_be_limited() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(limiter.tryAcquire("FREE:a").permitted()).isTrue();
+        }
+    }
+
+}
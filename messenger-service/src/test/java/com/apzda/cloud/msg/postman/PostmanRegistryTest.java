@@ -0,0 +1,87 @@
+package com.apzda.cloud.msg.postman;
+
+import com.apzda.cloud.msg.Postman;
+import lombok.val;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class PostmanRegistryTest {
+
+    private Postman<?, ?> named;
+
+    private Postman<?, ?> fallback;
+
+    private PostmanRegistry registry;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        named = mock(Postman.class);
+        when(named.names()).thenReturn(Set.of("rocketmq"));
+        fallback = mock(Postman.class);
+        when(fallback.names()).thenReturn(Set.of());
+        when(fallback.supports(anyString())).thenAnswer(invocation -> "sms".equals(invocation.getArgument(0)));
+        ObjectProvider<Postman<?, ?>> provider = mock(ObjectProvider.class);
+        when(provider.orderedStream()).thenAnswer(invocation -> Stream.of(named, fallback));
+        registry = new PostmanRegistry(provider);
+    }
+
+    @Test
+    void postmen_should_be_resolved_by_name_then_by_supports() {
+        // when
+        val first = registry.get("sms");
+        val second = registry.get("sms");
+
+        // then
+        assertThat(registry.get("rocketmq")).isSameAs(named);
+        assertThat(first).isSameAs(fallback);
+        assertThat(second).isSameAs(fallback);
+        verify(fallback, times(1)).supports("sms");
+    }
+
+    @Test
+    void unknown_names_should_be_cached_as_misses() {
+        // when
+        for (int i = 0; i < 3; i++) {
+            assertThat(registry.get("fax")).isNull();
+        }
+
+        // then
+        verify(fallback, times(1)).supports("fax");
+        assertThat(registry.getUnknownCount()).isEqualTo(1);
+    }
+
+    @Test
+    void misses_should_be_bounded_and_cleared_on_refresh() {
+        // given
+        for (int i = 0; i <= PostmanRegistry.MAX_MISSES; i++) {
+            registry.get("unknown-" + i);
+        }
+
+        // when
+        registry.get("unknown-0");
+        registry.refresh();
+        registry.get("unknown-1");
+
+        // then: 超过上限时清空，刷新后重新匹配
+        verify(fallback, times(2)).supports("unknown-0");
+        verify(fallback, times(2)).supports("unknown-1");
+    }
+
+}
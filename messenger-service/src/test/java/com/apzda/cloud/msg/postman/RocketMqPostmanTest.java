@@ -0,0 +1,368 @@
+package com.apzda.cloud.msg.postman;
+
+import com.apzda.cloud.msg.DeliveryResult;
+import com.apzda.cloud.msg.RocketMail;
+import com.apzda.cloud.msg.config.MessengerServiceProperties;
+import com.apzda.cloud.msg.mq.FixedRateLimiter;
+import lombok.val;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.remoting.exception.RemotingTimeoutException;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class RocketMqPostmanTest {
+
+    private final List<SendCallback> callbacks = new CopyOnWriteArrayList<>();
+
+    private final List<Batch> batches = new CopyOnWriteArrayList<>();
+
+    private RocketMQTemplate mqTemplate;
+
+    private MessengerServiceProperties properties;
+
+    private RocketMqPostman postman;
+
+    @BeforeEach
+    void setUp() {
+        mqTemplate = mock(RocketMQTemplate.class);
+        doAnswer(invocation -> {
+            callbacks.add(invocation.getArgument(2));
+            return null;
+        }).when(mqTemplate).asyncSend(anyString(), any(Message.class), any(SendCallback.class));
+        doAnswer(invocation -> {
+            Collection<?> messages = invocation.getArgument(1);
+            batches.add(new Batch(invocation.getArgument(0), messages.size(), invocation.getArgument(2)));
+            return null;
+        }).when(mqTemplate).asyncSend(anyString(), anyCollection(), any(SendCallback.class));
+        // 单条消息上限1KB: 200字节的消息每批最多两条
+        val producer = new DefaultMQProducer("test");
+        producer.setMaxMessageSize(1024);
+        when(mqTemplate.getProducer()).thenReturn(producer);
+
+        properties = new MessengerServiceProperties();
+        properties.setLimitRetry(0);
+        val limit = new MessengerServiceProperties.RateLimit();
+        limit.setRate(1);
+        limit.setPeriod(Duration.ofHours(1));
+        properties.getRateLimits().put("LIMITED:*", limit);
+        val burst = new MessengerServiceProperties.RateLimit();
+        burst.setRate(1);
+        burst.setBurst(2);
+        burst.setPeriod(Duration.ofHours(1));
+        properties.getRateLimits().put("BURST:*", burst);
+        val forward = properties.getForward();
+        forward.setAsync(true);
+        forward.setBatch(true);
+        forward.setMaxInFlight(2);
+        forward.setAcquireTimeout(Duration.ofSeconds(5));
+        postman = new RocketMqPostman(new FixedRateLimiter(mqTemplate, properties), forward);
+    }
+
+    @Test
+    void permits_should_be_released_on_success() throws Exception {
+        // given
+        val first = deliver("TEST:a");
+        val second = deliver("TEST:a");
+
+        // when
+        callbacks.forEach(callback -> callback.onSuccess(new SendResult()));
+
+        // then
+        assertThat(result(first).status()).isEqualTo(DeliveryResult.Status.DELIVERED);
+        assertThat(result(second).status()).isEqualTo(DeliveryResult.Status.DELIVERED);
+        assertWindowIsFree("TEST:a");
+    }
+
+    @Test
+    void permits_should_be_released_on_failure() throws Exception {
+        // given
+        val first = deliver("TEST:a");
+        val second = deliver("TEST:a");
+
+        // when
+        callbacks.get(0).onException(new IllegalStateException("broker is busy"));
+        callbacks.get(1).onException(new RemotingTimeoutException("wait response timeout"));
+
+        // then
+        val failed = result(first);
+        assertThat(failed.status()).isEqualTo(DeliveryResult.Status.TRANSIENT_FAILURE);
+        assertThat(failed.reason()).contains("broker is busy");
+        val timeout = result(second);
+        assertThat(timeout.status()).isEqualTo(DeliveryResult.Status.TRANSIENT_FAILURE);
+        assertThat(timeout.reason()).contains("timeout");
+        assertWindowIsFree("TEST:a");
+    }
+
+    @Test
+    void saturated_window_should_defer_without_waiting() throws Exception {
+        // given
+        val first = deliver("TEST:a");
+        deliver("TEST:a");
+
+        // when
+        val begin = System.nanoTime();
+        val third = result(deliver("TEST:a"));
+        val waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        // then
+        assertThat(third.status()).isEqualTo(DeliveryResult.Status.DEFERRED);
+        assertThat(third.retryAfter()).isEqualTo(Duration.ofSeconds(5));
+        assertThat(waited).isLessThan(1000);
+        assertThat(callbacks).hasSize(2);
+        // 推迟的邮件不占用许可: 一条完成后立即有空位
+        callbacks.get(0).onSuccess(new SendResult());
+        assertThat(result(first).status()).isEqualTo(DeliveryResult.Status.DELIVERED);
+        val fourth = deliver("TEST:a");
+        assertThat(fourth).isNotDone();
+        assertThat(callbacks).hasSize(3);
+    }
+
+    @Test
+    void windows_should_be_per_destination() {
+        // given
+        deliver("TEST:a");
+        deliver("TEST:a");
+
+        // when
+        val other = deliver("TEST:b");
+
+        // then
+        assertThat(other).isNotDone();
+        assertThat(callbacks).hasSize(3);
+    }
+
+    @Test
+    void permits_should_be_released_when_rate_limited() throws Exception {
+        // given: 每小时只允许一条
+        val first = deliver("LIMITED:a");
+        callbacks.get(0).onSuccess(new SendResult());
+        assertThat(result(first).status()).isEqualTo(DeliveryResult.Status.DELIVERED);
+
+        // when
+        val limited = new ArrayList<DeliveryResult>();
+        for (int i = 0; i < 3; i++) {
+            limited.add(result(deliver("LIMITED:a")));
+        }
+
+        // then: 等待的是限速器而不是在途窗口
+        assertThat(limited).allSatisfy(result -> {
+            assertThat(result.status()).isEqualTo(DeliveryResult.Status.DEFERRED);
+            assertThat(result.retryAfter()).isGreaterThan(Duration.ofMinutes(1));
+        });
+        assertThat(callbacks).hasSize(1);
+    }
+
+    @Test
+    void sync_delivery_should_map_outcomes_to_results() throws Exception {
+        // given
+        properties.getForward().setAsync(false);
+        doThrow(new IllegalStateException("no route")).when(mqTemplate).send(eq("BROKEN:a"), any(Message.class));
+
+        // when
+        val delivered = result(deliver("TEST:a"));
+        val first = result(deliver("LIMITED:a"));
+        val limited = result(deliver("LIMITED:a"));
+        val failed = result(deliver("BROKEN:a"));
+
+        // then
+        assertThat(delivered.status()).isEqualTo(DeliveryResult.Status.DELIVERED);
+        assertThat(first.status()).isEqualTo(DeliveryResult.Status.DELIVERED);
+        assertThat(limited.status()).isEqualTo(DeliveryResult.Status.DEFERRED);
+        assertThat(limited.retryAfter()).isGreaterThan(Duration.ofMinutes(1));
+        assertThat(failed.status()).isEqualTo(DeliveryResult.Status.TRANSIENT_FAILURE);
+        assertThat(failed.reason()).contains("no route");
+        assertThat(callbacks).isEmpty();
+    }
+
+    @Test
+    void batch_should_be_grouped_by_destination() throws Exception {
+        // when
+        val future = deliverBatch(mail("TEST:a", 100), mail("TEST:b", 100), mail("TEST:a", 100));
+
+        // then
+        assertThat(batches).extracting(Batch::destination, Batch::size)
+            .containsExactly(tuple("TEST:a", 2), tuple("TEST:b", 1));
+        batches.get(0).callback().onSuccess(new SendResult());
+        batches.get(1).callback().onException(new IllegalStateException("broker is busy"));
+        val results = future.get(5, TimeUnit.SECONDS);
+        assertThat(results).extracting(DeliveryResult::status)
+            .containsExactly(DeliveryResult.Status.DELIVERED, DeliveryResult.Status.TRANSIENT_FAILURE,
+                    DeliveryResult.Status.DELIVERED);
+        assertThat(results.get(1).reason()).contains("broker is busy");
+        assertWindowIsFree("TEST:a");
+        assertWindowIsFree("TEST:b");
+    }
+
+    @Test
+    void batch_should_be_split_by_size() throws Exception {
+        // given
+        properties.getForward().setMaxInFlight(4);
+
+        // when
+        val future = deliverBatch(mail("TEST:a", 200), mail("TEST:a", 900), mail("TEST:a", 200), mail("TEST:a", 200));
+
+        // then: 超限的邮件永久失败且不占用许可，其余按大小切分为两批
+        assertThat(batches).extracting(Batch::size).containsExactly(2, 1);
+        batches.forEach(batch -> batch.callback().onSuccess(new SendResult()));
+        val results = future.get(5, TimeUnit.SECONDS);
+        assertThat(results).extracting(DeliveryResult::status)
+            .containsExactly(DeliveryResult.Status.DELIVERED, DeliveryResult.Status.PERMANENT_FAILURE,
+                    DeliveryResult.Status.DELIVERED, DeliveryResult.Status.DELIVERED);
+        assertThat(results.get(1).reason()).contains("too large");
+        // 许可都已归还: 整窗的小消息合并为一批立即发出
+        deliverBatch(mail("TEST:a", 10), mail("TEST:a", 10), mail("TEST:a", 10), mail("TEST:a", 10));
+        assertThat(batches).extracting(Batch::size).containsExactly(2, 1, 3, 1);
+    }
+
+    @Test
+    void partial_grant_should_defer_the_tail() throws Exception {
+        // given: 桶里只有两个令牌
+        properties.getForward().setMaxInFlight(4);
+
+        // when
+        val future = deliverBatch(mail("BURST:a", 10), mail("BURST:a", 10), mail("BURST:a", 10));
+
+        // then
+        assertThat(batches).extracting(Batch::size).containsExactly(2);
+        batches.get(0).callback().onSuccess(new SendResult());
+        val results = future.get(5, TimeUnit.SECONDS);
+        assertThat(results).extracting(DeliveryResult::status)
+            .containsExactly(DeliveryResult.Status.DELIVERED, DeliveryResult.Status.DELIVERED,
+                    DeliveryResult.Status.DEFERRED);
+        assertThat(results.get(2).retryAfter()).isGreaterThan(Duration.ofMinutes(1));
+        // 未获准的许可已归还: 再投递时等待的是限速器而不是在途窗口
+        val limited = deliverBatch(mail("BURST:a", 10), mail("BURST:a", 10), mail("BURST:a", 10), mail("BURST:a", 10))
+            .get(5, TimeUnit.SECONDS);
+        assertThat(limited).allSatisfy(result -> {
+            assertThat(result.status()).isEqualTo(DeliveryResult.Status.DEFERRED);
+            assertThat(result.retryAfter()).isGreaterThan(Duration.ofMinutes(1));
+        });
+        assertThat(batches).hasSize(1);
+    }
+
+    @Test
+    void batch_should_be_capped_by_window() throws Exception {
+        // when
+        val future = deliverBatch(mail("TEST:a", 10), mail("TEST:a", 10), mail("TEST:a", 10));
+        val saturated = deliverBatch(mail("TEST:a", 10)).get(5, TimeUnit.SECONDS);
+
+        // then
+        assertThat(batches).extracting(Batch::size).containsExactly(2);
+        assertThat(saturated.get(0).status()).isEqualTo(DeliveryResult.Status.DEFERRED);
+        assertThat(saturated.get(0).retryAfter()).isEqualTo(Duration.ofSeconds(5));
+        batches.get(0).callback().onException(new RemotingTimeoutException("wait response timeout"));
+        val results = future.get(5, TimeUnit.SECONDS);
+        assertThat(results).extracting(DeliveryResult::status)
+            .containsExactly(DeliveryResult.Status.TRANSIENT_FAILURE, DeliveryResult.Status.TRANSIENT_FAILURE,
+                    DeliveryResult.Status.DEFERRED);
+        assertThat(results.get(2).retryAfter()).isEqualTo(Duration.ofSeconds(5));
+        assertWindowIsFree("TEST:a");
+    }
+
+    @Test
+    void batch_should_take_what_is_left_of_the_window() throws Exception {
+        // given
+        val single = deliver("TEST:a");
+
+        // when
+        val future = deliverBatch(mail("TEST:a", 10), mail("TEST:a", 10));
+
+        // then
+        assertThat(batches).extracting(Batch::size).containsExactly(1);
+        batches.get(0).callback().onSuccess(new SendResult());
+        val results = future.get(5, TimeUnit.SECONDS);
+        assertThat(results).extracting(DeliveryResult::status)
+            .containsExactly(DeliveryResult.Status.DELIVERED, DeliveryResult.Status.DEFERRED);
+        assertThat(results.get(1).retryAfter()).isEqualTo(Duration.ofSeconds(5));
+        callbacks.get(0).onSuccess(new SendResult());
+        assertThat(result(single).status()).isEqualTo(DeliveryResult.Status.DELIVERED);
+        assertWindowIsFree("TEST:a");
+    }
+
+    @Test
+    void sync_batch_should_map_outcomes_per_group() throws Exception {
+        // given
+        properties.getForward().setAsync(false);
+        when(mqTemplate.syncSend(eq("BROKEN:a"), anyCollection())).thenThrow(new IllegalStateException("no route"));
+
+        // when
+        val results = deliverBatch(mail("TEST:a", 10), mail("BROKEN:a", 10), mail("TEST:a", 900), mail("LIMITED:a", 10),
+                mail("LIMITED:a", 10))
+            .get(5, TimeUnit.SECONDS);
+
+        // then
+        assertThat(results).extracting(DeliveryResult::status)
+            .containsExactly(DeliveryResult.Status.DELIVERED, DeliveryResult.Status.TRANSIENT_FAILURE,
+                    DeliveryResult.Status.PERMANENT_FAILURE, DeliveryResult.Status.DELIVERED,
+                    DeliveryResult.Status.DEFERRED);
+        assertThat(results.get(1).reason()).contains("no route");
+        assertThat(results.get(4).retryAfter()).isGreaterThan(Duration.ofMinutes(1));
+        verify(mqTemplate).syncSend(eq("TEST:a"), anyCollection());
+        verify(mqTemplate).syncSend(eq("LIMITED:a"), anyCollection());
+        assertThat(batches).isEmpty();
+    }
+
+    private CompletableFuture<DeliveryResult> deliver(String destination) {
+        val mail = postman.encapsulate(String.valueOf(System.nanoTime()), "rocketmq", "content");
+        mail.setRecipients(destination);
+        return postman.deliverAsync(mail).toCompletableFuture();
+    }
+
+    private CompletableFuture<List<DeliveryResult>> deliverBatch(RocketMail... mails) {
+        return postman.deliverBatch(List.of(mails)).toCompletableFuture();
+    }
+
+    private RocketMail mail(String destination, int size) {
+        val mail = postman.encapsulate(String.valueOf(System.nanoTime()), "rocketmq", "x".repeat(size));
+        mail.setRecipients(destination);
+        return mail;
+    }
+
+    private void assertWindowIsFree(String destination) {
+        // 两个许可都已归还: 两条新消息都能立即发出
+        val before = callbacks.size();
+        assertThat(deliver(destination)).isNotDone();
+        assertThat(deliver(destination)).isNotDone();
+        assertThat(callbacks).hasSize(before + 2);
+    }
+
+    /**
+     * 与MailboxConsumer一样，以异常结束的投递按异常转换为投递结果.
+     */
+    private static DeliveryResult result(CompletableFuture<DeliveryResult> future) throws Exception {
+        return future.handle((result, e) -> e == null ? result : DeliveryResult.of(e)).get(5, TimeUnit.SECONDS);
+    }
+
+    private record Batch(String destination, int size, SendCallback callback) {
+    }
+
+}
@@ -4,11 +4,18 @@ import com.apzda.cloud.gsvc.autoconfigure.MyBatisPlusAutoConfiguration;
 import com.apzda.cloud.gsvc.config.ServiceConfigProperties;
 import com.apzda.cloud.gsvc.domain.PagerUtils;
 import com.apzda.cloud.gsvc.ext.GsvcExt;
+import com.apzda.cloud.msg.config.MessengerClientProperties;
 import com.apzda.cloud.msg.config.MessengerServiceProperties;
+import com.apzda.cloud.msg.domain.entity.Delivery;
+import com.apzda.cloud.msg.domain.entity.Mailbox;
+import com.apzda.cloud.msg.domain.mapper.DeliveryMapper;
+import com.apzda.cloud.msg.domain.service.IMailboxService;
+import com.apzda.cloud.msg.domain.vo.MailStatus;
 import com.apzda.cloud.msg.proto.DeliveryQuery;
 import com.apzda.cloud.msg.proto.MailboxQuery;
 import com.apzda.cloud.msg.proto.MessengerService;
 import com.apzda.cloud.test.autoconfig.AutoConfigureGsvcTest;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.test.autoconfigure.MybatisPlusTest;
 import com.google.protobuf.Empty;
 import lombok.val;
@@ -26,13 +33,20 @@ import org.springframework.context.annotation.ComponentScan;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.jdbc.Sql;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 import org.testcontainers.containers.MySQLContainer;
 import org.testcontainers.utility.DockerImageName;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -46,13 +60,21 @@ import static org.assertj.core.api.Assertions.assertThat;
 @ImportAutoConfiguration(MyBatisPlusAutoConfiguration.class)
 @ComponentScan({ "com.apzda.cloud.msg.domain.service", "com.apzda.cloud.msg.service", "com.apzda.cloud.msg.converter" })
 @MapperScan("com.apzda.cloud.msg.domain.mapper")
-@EnableConfigurationProperties({ MessengerServiceProperties.class, ServiceConfigProperties.class })
+@EnableConfigurationProperties({ MessengerServiceProperties.class, MessengerClientProperties.class,
+        ServiceConfigProperties.class })
 @Sql(value = "classpath:/mailbox.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_CLASS)
+@TestPropertySource(properties = "apzda.cloud.postman.outcome.batch-size=100")
 class MessengerServiceImplTest {
 
     @Autowired
     private MessengerService messengerService;
 
+    @Autowired
+    private IMailboxService mailboxService;
+
+    @Autowired
+    private DeliveryMapper deliveryMapper;
+
     @Test
     void query_desc() {
         // given
@@ -127,6 +149,151 @@ class MessengerServiceImplTest {
             .contains(GsvcExt.KeyValue.newBuilder().setKey("PENDING").setValue("PENDING").build());
     }
 
+    @Test
+    void mailbox_should_be_saved_once() {
+        // given
+        val mailbox = new Mailbox();
+        mailbox.setMsgId("once");
+        mailbox.setPostman("test");
+        mailbox.setContent("test once");
+        mailbox.setStatus(MailStatus.SENDING);
+        mailbox.setRetries(0);
+        mailbox.setNextRetryAt(0L);
+        mailbox.setPostTime(0L);
+        val duplicated = new Mailbox();
+        duplicated.setMsgId("once");
+        duplicated.setPostman("test");
+        duplicated.setContent("test once again");
+        duplicated.setStatus(MailStatus.SENDING);
+        duplicated.setRetries(0);
+        duplicated.setNextRetryAt(0L);
+        duplicated.setPostTime(0L);
+
+        // when
+        val saved = mailboxService.saveIfAbsent(mailbox);
+        val savedAgain = mailboxService.saveIfAbsent(duplicated);
+
+        // then
+        assertThat(saved).isTrue();
+        assertThat(mailbox.getId()).isNotNull();
+        assertThat(savedAgain).isFalse();
+        assertThat(mailboxService.getByPostmanAndMsgId("test", "once").getContent()).isEqualTo("test once");
+    }
+
+    @Test
+    void mailboxes_should_be_saved_once_in_batch() {
+        // given
+        val existing = mailbox("batch-1", "test");
+        mailboxService.saveIfAbsent(existing);
+        val mailboxes = List.of(mailbox("batch-1", "test"), mailbox("batch-2", "test"), mailbox("batch-2", "test"),
+                mailbox("batch-2", "demo"));
+
+        // when
+        val saved = mailboxService.saveAllIfAbsent(mailboxes, "batch-token");
+
+        // then
+        assertThat(saved).hasSize(2);
+        assertThat(saved).allMatch(mailbox -> mailbox.getId() != null);
+        assertThat(saved).extracting(Mailbox::getPostman).containsExactlyInAnyOrder("test", "demo");
+        assertThat(mailboxService.saveAllIfAbsent(mailboxes, "batch-token-2")).isEmpty();
+    }
+
+    @Test
+    void only_due_mailboxes_should_be_claimed_by_ids() {
+        // given
+        val now = System.currentTimeMillis();
+        val due = mailbox("due", "test");
+        due.setStatus(MailStatus.RETRYING);
+        due.setNextRetryAt(now - 1000);
+        mailboxService.saveIfAbsent(due);
+        val postponed = mailbox("postponed", "test");
+        postponed.setStatus(MailStatus.RETRYING);
+        postponed.setNextRetryAt(now + 60000);
+        mailboxService.saveIfAbsent(postponed);
+
+        // when
+        val scheduled = mailboxService.listScheduled(now, now + 120000, 100);
+        val claimed = mailboxService.claimByIds(List.of(due.getId(), postponed.getId()), now, "wheel-token");
+
+        // then
+        assertThat(scheduled).extracting(Mailbox::getId).containsExactly(postponed.getId());
+        assertThat(claimed).extracting(Mailbox::getId).containsExactly(due.getId());
+        assertThat(claimed).allMatch(mailbox -> mailbox.getStatus() == MailStatus.SENDING);
+        assertThat(claimed).allMatch(mailbox -> mailbox.getLeaseExpireAt() > now);
+    }
+
+    @Test
+    void stale_claim_should_lose_the_write() {
+        // given: 租期过后邮件已被其它认领者持有
+        val mailbox = mailbox("stale-sync", "test");
+        mailbox.setClaimToken("new-token");
+        mailboxService.saveIfAbsent(mailbox);
+        val stale = mailbox("stale-sync", "test");
+        stale.setId(mailbox.getId());
+        stale.setClaimToken("old-token");
+
+        // when
+        assertThatThrownBy(() -> mailboxService.markSuccess(stale)).isInstanceOf(IllegalStateException.class);
+
+        // then
+        val current = mailboxService.getById(mailbox.getId());
+        assertThat(current.getStatus()).isEqualTo(MailStatus.SENDING);
+        assertThat(current.getClaimToken()).isEqualTo("new-token");
+        assertThat(deliveries(mailbox.getId())).isZero();
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void stale_claim_should_lose_the_batched_write() throws Exception {
+        // given: 结果由组提交写入器在自己的事务中写入
+        val mailbox = mailbox("stale-batch-" + System.nanoTime(), "test");
+        mailbox.setClaimToken("new-token");
+        mailboxService.saveIfAbsent(mailbox);
+        val owned = mailbox("owned-batch-" + System.nanoTime(), "test");
+        owned.setClaimToken("owned-token");
+        mailboxService.saveIfAbsent(owned);
+        val stale = mailbox(mailbox.getMsgId(), "test");
+        stale.setId(mailbox.getId());
+        stale.setClaimToken("old-token");
+
+        try {
+            // when
+            val lost = mailboxService.markSuccessAsync(stale).toCompletableFuture();
+            val won = mailboxService.markFailureAsync(owned, "timeout").toCompletableFuture();
+
+            // then
+            assertThatThrownBy(() -> lost.get(10, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+            won.get(10, TimeUnit.SECONDS);
+            assertThat(mailboxService.getById(mailbox.getId()).getStatus()).isEqualTo(MailStatus.SENDING);
+            assertThat(deliveries(mailbox.getId())).isZero();
+            assertThat(mailboxService.getById(owned.getId()).getStatus()).isEqualTo(MailStatus.RETRYING);
+            assertThat(deliveries(owned.getId())).isEqualTo(1);
+        }
+        finally {
+            // 本用例的数据已提交，不能影响其它用例
+            deliveryMapper.delete(
+                    Wrappers.lambdaQuery(Delivery.class).in(Delivery::getMailboxId, mailbox.getId(), owned.getId()));
+            mailboxService.removeByIds(List.of(mailbox.getId(), owned.getId()));
+        }
+    }
+
+    private long deliveries(Long mailboxId) {
+        return deliveryMapper.selectCount(Wrappers.lambdaQuery(Delivery.class).eq(Delivery::getMailboxId, mailboxId));
+    }
+
+    private static Mailbox mailbox(String msgId, String postman) {
+        val mailbox = new Mailbox();
+        mailbox.setMsgId(msgId);
+        mailbox.setPostman(postman);
+        mailbox.setContent("test " + msgId);
+        mailbox.setStatus(MailStatus.SENDING);
+        mailbox.setRetries(0);
+        mailbox.setNextRetryAt(0L);
+        mailbox.setPostTime(0L);
+        return mailbox;
+    }
+
     @TestConfiguration(proxyBeanMethods = false)
     @ConditionalOnProperty(name = "skip.container", havingValue = "no", matchIfMissing = true)
     static class TestConfig {
@@ -0,0 +1,180 @@
+package com.apzda.cloud.msg.service;
+
+import com.apzda.cloud.gsvc.autoconfigure.MyBatisPlusAutoConfiguration;
+import com.apzda.cloud.msg.domain.entity.Delivery;
+import com.apzda.cloud.msg.domain.entity.Mailbox;
+import com.apzda.cloud.msg.domain.mapper.DeliveryMapper;
+import com.apzda.cloud.msg.domain.service.IMailboxService;
+import com.apzda.cloud.msg.domain.vo.MailStatus;
+import com.apzda.cloud.test.autoconfig.AutoConfigureGsvcTest;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.baomidou.mybatisplus.test.autoconfigure.MybatisPlusTest;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 驱动不返回批量更新行数(rewriteBatchedStatements=true)时的组提交.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@MybatisPlusTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ContextConfiguration(classes = MessengerServiceImplTest.class)
+@AutoConfigureGsvcTest
+@ImportAutoConfiguration(MyBatisPlusAutoConfiguration.class)
+@Import(OutcomeBatchTest.NoInfoDataSource.class)
+@TestPropertySource(properties = "apzda.cloud.postman.outcome.batch-size=100")
+class OutcomeBatchTest {
+
+    private static final List<String> executed = new CopyOnWriteArrayList<>();
+
+    @Autowired
+    private IMailboxService mailboxService;
+
+    @Autowired
+    private DeliveryMapper deliveryMapper;
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void stale_claim_should_lose_the_batched_write_without_update_counts() throws Exception {
+        // given
+        val mailbox = mailbox("no-info-stale-" + System.nanoTime(), "new-token");
+        mailboxService.saveIfAbsent(mailbox);
+        val owned = mailbox("no-info-owned-" + System.nanoTime(), "owned-token");
+        mailboxService.saveIfAbsent(owned);
+        val stale = mailbox(mailbox.getMsgId(), "old-token");
+        stale.setId(mailbox.getId());
+        executed.clear();
+
+        try {
+            // when
+            val lost = mailboxService.markSuccessAsync(stale).toCompletableFuture();
+            val won = mailboxService.markFailureAsync(owned, "timeout").toCompletableFuture();
+
+            // then
+            assertThatThrownBy(() -> lost.get(10, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+            won.get(10, TimeUnit.SECONDS);
+            assertThat(mailboxService.getById(mailbox.getId()).getStatus()).isEqualTo(MailStatus.SENDING);
+            assertThat(deliveries(mailbox.getId())).isZero();
+            assertThat(mailboxService.getById(owned.getId()).getStatus()).isEqualTo(MailStatus.RETRYING);
+            assertThat(deliveries(owned.getId())).isEqualTo(1);
+            // 没有退回逐条写入
+            assertThat(executed).noneMatch(sql -> sql.trim().startsWith("UPDATE apzda_mailbox"));
+        }
+        finally {
+            deliveryMapper.delete(
+                    Wrappers.lambdaQuery(Delivery.class).in(Delivery::getMailboxId, mailbox.getId(), owned.getId()));
+            mailboxService.removeByIds(List.of(mailbox.getId(), owned.getId()));
+        }
+    }
+
+    private long deliveries(Long mailboxId) {
+        return deliveryMapper.selectCount(Wrappers.lambdaQuery(Delivery.class).eq(Delivery::getMailboxId, mailboxId));
+    }
+
+    private static Mailbox mailbox(String msgId, String token) {
+        val mailbox = new Mailbox();
+        mailbox.setMsgId(msgId);
+        mailbox.setPostman("test");
+        mailbox.setContent("test " + msgId);
+        mailbox.setStatus(MailStatus.SENDING);
+        mailbox.setClaimToken(token);
+        mailbox.setRetries(0);
+        mailbox.setNextRetryAt(0L);
+        mailbox.setPostTime(0L);
+        return mailbox;
+    }
+
+    /**
+     * 让批量执行只返回SUCCESS_NO_INFO，并记录逐条执行的语句.
+     */
+    static class NoInfoDataSource implements BeanPostProcessor {
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (bean instanceof DataSource dataSource) {
+                return proxy(DataSource.class, dataSource, (target, method, args) -> {
+                    val result = invoke(target, method, args);
+                    return result instanceof Connection connection ? connection(connection) : result;
+                });
+            }
+            return bean;
+        }
+
+        private static Connection connection(Connection connection) {
+            return proxy(Connection.class, connection, (target, method, args) -> {
+                val result = invoke(target, method, args);
+                if (result instanceof PreparedStatement statement && method.getName().equals("prepareStatement")) {
+                    return statement(statement, (String) args[0]);
+                }
+                return result;
+            });
+        }
+
+        private static PreparedStatement statement(PreparedStatement statement, String sql) {
+            return proxy(PreparedStatement.class, statement, (target, method, args) -> {
+                val result = invoke(target, method, args);
+                if (method.getName().equals("executeBatch")) {
+                    val counts = (int[]) result;
+                    Arrays.fill(counts, Statement.SUCCESS_NO_INFO);
+                    return counts;
+                }
+                if (method.getName().startsWith("execute")) {
+                    executed.add(sql);
+                }
+                return result;
+            });
+        }
+
+        private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            }
+            catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> type, T target, Handler<T> handler) {
+            return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                    (proxy, method, args) -> handler.invoke(target, method, args));
+        }
+
+        interface Handler<T> {
+
+            Object invoke(T target, Method method, Object[] args) throws Throwable;
+
+        }
+
+    }
+
+}